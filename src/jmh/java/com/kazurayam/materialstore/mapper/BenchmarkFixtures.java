@@ -0,0 +1,154 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates the input Materials of the benchmarks, so that the benchmarks
+ * do not depend on files which may change or disappear.
+ *
+ * Each benchmark is parameterized by a size "small", "medium" or "large";
+ * the fixtures are deterministic for a given size.
+ */
+final class BenchmarkFixtures {
+
+    static final String SMALL = "small";
+    static final String MEDIUM = "medium";
+    static final String LARGE = "large";
+
+    private static final JobName JOB_NAME = new JobName("benchmark");
+
+    private final Path root;
+    private final Store store;
+
+    private BenchmarkFixtures(Path root) {
+        this.root = root;
+        this.store = Stores.newInstance(root.resolve("store"));
+    }
+
+    static BenchmarkFixtures create() throws IOException {
+        return new BenchmarkFixtures(Files.createTempDirectory("materialstore-mapper-jmh"));
+    }
+
+    Store getStore() {
+        return store;
+    }
+
+    Material write(FileType fileType, String size, byte[] data)
+            throws MaterialstoreException {
+        Metadata metadata = Metadata.builder().put("size", size).build();
+        return store.write(JOB_NAME, JobTimestamp.now(), fileType, metadata, data);
+    }
+
+    void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    static int pick(String size, int small, int medium, int large) {
+        switch (size) {
+            case SMALL: return small;
+            case MEDIUM: return medium;
+            case LARGE: return large;
+            default: throw new IllegalArgumentException("unknown size: " + size);
+        }
+    }
+
+    /**
+     * a workbook with a mix of text and numeric cells in every sheet
+     */
+    static byte[] xlsx(int sheets, int rows, int columns) throws IOException {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            for (int s = 0; s < sheets; s++) {
+                Sheet sheet = workbook.createSheet("Sheet" + (s + 1));
+                Row header = sheet.createRow(0);
+                for (int c = 0; c < columns; c++) {
+                    header.createCell(c).setCellValue("column" + c);
+                }
+                for (int r = 1; r <= rows; r++) {
+                    Row row = sheet.createRow(r);
+                    for (int c = 0; c < columns; c++) {
+                        if (c % 2 == 0) {
+                            row.createCell(c).setCellValue("text " + r + "," + c);
+                        } else {
+                            row.createCell(c).setCellValue(r * 1000.0 + c / 8.0);
+                        }
+                    }
+                }
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            workbook.write(baos);
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * a PDF of A4 pages filled with lines of text
+     */
+    static byte[] pdf(int pages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.newLineAtOffset(50, 800);
+                    for (int line = 0; line < 60; line++) {
+                        content.showText("Page " + (p + 1) + " line " + (line + 1)
+                                + " The quick brown fox jumps over the lazy dog.");
+                        content.newLineAtOffset(0, -12);
+                    }
+                    content.endText();
+                }
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            document.save(baos);
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * an RSS 2.0 document
+     */
+    static byte[] rss(int items) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<rss version=\"2.0\"><channel>\n");
+        sb.append("<title>benchmark</title><link>http://example.com/</link>");
+        sb.append("<description>generated</description>\n");
+        for (int i = 0; i < items; i++) {
+            sb.append("<item><title>Item ").append(i).append("</title>");
+            sb.append("<link>http://example.com/items/").append(i).append("</link>");
+            sb.append("<description>Description of item ").append(i)
+                    .append(", which is long enough to wrap in a cell.</description>");
+            sb.append("<pubDate>Mon, 07 Mar 2022 09:00:00 GMT</pubDate></item>\n");
+        }
+        sb.append("</channel></rss>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PDF2ImageMapperBenchmark {
+
+    @Param({BenchmarkFixtures.SMALL, BenchmarkFixtures.MEDIUM, BenchmarkFixtures.LARGE})
+    public String size;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private BenchmarkFixtures fixtures;
+    private Material material;
+
+    @Setup
+    public void setup() throws IOException, MaterialstoreException {
+        fixtures = BenchmarkFixtures.create();
+        byte[] pdf = BenchmarkFixtures.pdf(BenchmarkFixtures.pick(size, 1, 10, 30));
+        material = fixtures.write(FileType.PDF, size, pdf);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public void map(Blackhole bh) throws MaterialstoreException {
+        PDF2ImageMapper mapper = new PDF2ImageMapper();
+        mapper.setWorkers(workers);
+        mapper.setStore(fixtures.getStore());
+        mapper.setMappingListener((data, fileType, metadata) -> bh.consume(data));
+        mapper.map(material);
+    }
+}
@@ -0,0 +1,127 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RSS2ExcelMapperBenchmark {
+
+    @Param({BenchmarkFixtures.SMALL, BenchmarkFixtures.MEDIUM, BenchmarkFixtures.LARGE})
+    public String size;
+
+    private BenchmarkFixtures fixtures;
+    private Material material;
+
+    @Setup
+    public void setup() throws IOException, MaterialstoreException {
+        fixtures = BenchmarkFixtures.create();
+        byte[] rss = BenchmarkFixtures.rss(BenchmarkFixtures.pick(size, 10, 500, 5000));
+        material = fixtures.write(FileType.XML, size, rss);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixtures.delete();
+    }
+
+    @Benchmark
+    public void map(Blackhole bh) throws MaterialstoreException {
+        ItemsMapper mapper = new ItemsMapper();
+        mapper.setStore(fixtures.getStore());
+        mapper.setMappingListener((data, fileType, metadata) -> bh.consume(data));
+        mapper.map(material);
+    }
+
+    @Benchmark
+    public void mapCSV(Blackhole bh) throws MaterialstoreException {
+        ItemsCSVMapper mapper = new ItemsCSVMapper();
+        mapper.setStore(fixtures.getStore());
+        mapper.setMappingListener((data, fileType, metadata) -> bh.consume(data));
+        mapper.map(material);
+    }
+
+    /**
+     * a typical concrete RSS2ExcelMapper: one row per item
+     */
+    static final class ItemsMapper extends RSS2ExcelMapper {
+
+        @Override
+        String getSheetName() {
+            return "items";
+        }
+
+        @Override
+        void getData(Material material, RowWriter rows) throws MaterialstoreException {
+            List<Column> columns = getColumns();
+            readEntries(material, rows, entry -> {
+                Map<String, String> row = new HashMap<>();
+                row.put(columns.get(0).name(), entry.getTitle());
+                row.put(columns.get(1).name(), entry.getLink());
+                row.put(columns.get(2).name(), entry.getDescription());
+                rows.write(row);
+            });
+        }
+
+        @Override
+        List<Column> getColumns() {
+            return Arrays.asList(
+                    new Column("title", 6000),
+                    new Column("link", 10000),
+                    new Column("description", 16000)
+            );
+        }
+    }
+
+    /**
+     * the same rows as ItemsMapper, into CSV
+     */
+    static final class ItemsCSVMapper extends RSS2CSVMapper {
+
+        @Override
+        void getData(Material material, RowWriter rows) throws MaterialstoreException {
+            List<Column> columns = getColumns();
+            readEntries(material, rows, entry -> {
+                Map<String, String> row = new HashMap<>();
+                row.put(columns.get(0).name(), entry.getTitle());
+                row.put(columns.get(1).name(), entry.getLink());
+                row.put(columns.get(2).name(), entry.getDescription());
+                rows.write(row);
+            });
+        }
+
+        @Override
+        List<Column> getColumns() {
+            return Arrays.asList(
+                    new Column("title", 6000),
+                    new Column("link", 10000),
+                    new Column("description", 16000)
+            );
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.StoreImpl;
+import com.kazurayam.materialstore.map.MappedResultSerializer;
+import com.kazurayam.materialstore.map.Mapper;
+import com.kazurayam.materialstore.map.MappingListener;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.io.FeedException;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The base of the mappers which turn an RSS or Atom feed into a table:
+ * RSS2ExcelMapper and RSS2CSVMapper. A subclass defines the Columns and
+ * the rows; the concrete mapper decides the output format.
+ */
+public abstract class AbstractFeedMapper implements Mapper, Instrumentable {
+
+    protected Store store;
+    protected MappingListener listener;
+    protected MapperMetrics metrics;
+    private FeedDeltaIndex deltaIndex;
+
+    public AbstractFeedMapper() {
+        store = StoreImpl.NULL_OBJECT;
+        listener = MappedResultSerializer.NULL_OBJECT;
+        metrics = MapperMetrics.NOOP;
+        deltaIndex = null;
+    }
+
+    @Override
+    public void setStore(Store store) {
+        Objects.requireNonNull(store);
+        this.store = store;
+    }
+
+    @Override
+    public void setMappingListener(MappingListener listener) {
+        Objects.requireNonNull(listener);
+        this.listener = listener;
+    }
+
+    @Override
+    public void setMetrics(MapperMetrics metrics) {
+        Objects.requireNonNull(metrics);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Turns on the incremental mode. Each feed is compared with what the
+     * index recorded at its previous mapping, and only the rows of the new
+     * or changed entries are written. The output metadata gets "delta"
+     * ("true" if there was a previous mapping, "false" otherwise) and
+     * "delta_base", the JobTimestamp of the previous mapping.
+     * The index is updated after the output is handed to the MappingListener.
+     * Default: null, every row is written
+     */
+    public void setDeltaIndex(FeedDeltaIndex deltaIndex) {
+        this.deltaIndex = deltaIndex;
+    }
+
+    abstract List<Column> getColumns();
+
+    /**
+     * receives the data rows one by one; a row maps Column names to values
+     */
+    interface RowWriter {
+        void write(Map<String, String> row) throws MaterialstoreException;
+    }
+
+    /**
+     * Writes the data rows of the feed in the Material into the RowWriter.
+     *
+     * The default implementation reads the feed with readEntries() and
+     * writes a row per entry, each Column filled with the FeedEntry element
+     * of the same name (e.g. "title", "link", "dc:creator"), so that each
+     * row is written as soon as its entry is parsed and the feed is never
+     * held in memory as a whole. Subclasses override this to make the rows
+     * otherwise, still reading the feed with readEntries(), to which they
+     * pass the RowWriter given here.
+     *
+     * If usesSyndFeed() returns true, the whole feed is parsed into a
+     * SyndFeed with ROME instead and the rows of getData(SyndFeed) are written.
+     */
+    void getData(Material material, RowWriter rows) throws MaterialstoreException {
+        if (usesSyndFeed()) {
+            for (Map<String, String> row : getData(getFeed(material))) {
+                rows.write(row);
+            }
+            return;
+        }
+        List<Column> columns = getColumns();
+        readEntries(material, rows, entry -> {
+            Map<String, String> row = new HashMap<>();
+            for (Column column : columns) {
+                String value = entry.get(column.name());
+                if (value != null) {
+                    row.put(column.name(), value);
+                }
+            }
+            rows.write(row);
+        });
+    }
+
+    /**
+     * A subclass written for the older, non-incremental contract overrides
+     * this to return true, together with getData(SyndFeed).
+     * Default: false, the feed is streamed
+     */
+    boolean usesSyndFeed() {
+        return false;
+    }
+
+    /**
+     * The older, non-incremental contract, for the subclasses written before
+     * getData(Material, RowWriter); called only if usesSyndFeed() returns true
+     */
+    List<Map<String, String>> getData(SyndFeed feed) {
+        throw new UnsupportedOperationException(getClass().getName()
+                + " returns true from usesSyndFeed() but does not override getData(SyndFeed)");
+    }
+
+    /**
+     * Writes the rows of getData(material, rows), only the new or changed
+     * ones in the incremental mode.
+     *
+     * @return the Delta to tag the output metadata with and to commit
+     * once the output is emitted, or null if not in the incremental mode
+     */
+    FeedDeltaIndex.Delta writeRows(Material material, List<Column> columns,
+                                   RowWriter rows) throws MaterialstoreException {
+        if (deltaIndex == null) {
+            getData(material, rows);
+            return null;
+        }
+        FeedDeltaIndex.Delta delta = deltaIndex.begin(material);
+        getData(material, delta.filter(columns, rows));
+        return delta;
+    }
+
+    /**
+     * parses the RSS or Atom feed in the Material with StAX, and hands the
+     * items or entries to the handler one by one
+     *
+     * @param rows the RowWriter given to getData(), into which the handler
+     * writes the rows; in the incremental mode, it is told the entry from
+     * which the rows are made
+     * @return the number of entries
+     */
+    int readEntries(Material material, RowWriter rows,
+                    StreamingFeedReader.EntryHandler handler)
+            throws MaterialstoreException {
+        try (InputStream in = MaterialFiles.openStream(store, material)) {
+            if (!(rows instanceof FeedDeltaIndex.Delta.Filter)) {
+                return new StreamingFeedReader().read(in, handler);
+            }
+            FeedDeltaIndex.Delta delta = ((FeedDeltaIndex.Delta.Filter) rows).getDelta();
+            return new StreamingFeedReader().read(in, entry -> {
+                delta.setEntry(entry);
+                handler.onEntry(entry);
+            });
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    private SyndFeed getFeed(Material material) throws MaterialstoreException {
+        try (InputStream in = MaterialFiles.openStream(store, material)) {
+            SyndFeedInput input = new SyndFeedInput();
+            return input.build(new XmlReader(in));
+        } catch (IOException | FeedException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     *
+     */
+    protected static class Column {
+        private final String name;
+        private final int width;
+        Column(String name, int width) {
+            this.name = name;
+            this.width = width;
+        }
+        String name() {
+            return name;
+        }
+        int width() {
+            return width;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Reduces an image of width x height pixels into a grid of columns x rows
+ * cells, each of which is the average color of the pixels it covers.
+ * The image is fed strip by strip, top to bottom or in any order, so that
+ * a page rendered in strips is reduced without ever being whole.
+ *
+ * Transparent pixels are composited over white.
+ */
+final class AreaAverager {
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final int[] columnOf;
+    private final long[] red;
+    private final long[] green;
+    private final long[] blue;
+    private final long[] count;
+    private final int[] line;
+
+    AreaAverager(int width, int height, int columns, int rows) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException(
+                    "width and height must be 1 or more: " + width + "x" + height);
+        }
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException(
+                    "columns and rows must be 1 or more: " + columns + "x" + rows);
+        }
+        this.width = width;
+        this.height = height;
+        this.columns = columns;
+        this.rows = rows;
+        this.columnOf = new int[width];
+        for (int x = 0; x < width; x++) {
+            columnOf[x] = (int) ((long) x * columns / width);
+        }
+        this.red = new long[columns * rows];
+        this.green = new long[columns * rows];
+        this.blue = new long[columns * rows];
+        this.count = new long[columns * rows];
+        this.line = new int[width];
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * @param strip as wide as the image
+     * @param y0 the row of the image where the strip begins
+     */
+    void add(BufferedImage strip, int y0) {
+        if (strip.getWidth() != width) {
+            throw new IllegalArgumentException("the strip is " + strip.getWidth()
+                    + " pixels wide, not " + width);
+        }
+        if (y0 < 0 || y0 + strip.getHeight() > height) {
+            throw new IllegalArgumentException("rows " + y0 + " to "
+                    + (y0 + strip.getHeight()) + " are out of 0 to " + height);
+        }
+        for (int y = 0; y < strip.getHeight(); y++) {
+            readRow(strip, y, line);
+            addRow(y0 + y, line);
+        }
+    }
+
+    /**
+     * reads a row of the image as ARGB, as BufferedImage.getRGB() does but
+     * without converting pixel by pixel if the pixels are ints already
+     */
+    static void readRow(BufferedImage image, int y, int[] argb) {
+        int width = image.getWidth();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+                image.getRaster().getDataElements(0, y, width, 1, argb);
+                for (int x = 0; x < width; x++) {
+                    argb[x] |= 0xff000000;
+                }
+                break;
+            case BufferedImage.TYPE_INT_ARGB:
+                image.getRaster().getDataElements(0, y, width, 1, argb);
+                break;
+            default:
+                image.getRGB(0, y, width, 1, argb, 0, width);
+        }
+    }
+
+    /**
+     * @param argb a row of the image as returned by BufferedImage.getRGB()
+     */
+    void addRow(int y, int[] argb) {
+        int base = (int) ((long) y * rows / height) * columns;
+        for (int x = 0; x < width; x++) {
+            int p = argb[x];
+            int a = p >>> 24;
+            int r = (p >> 16) & 0xff;
+            int g = (p >> 8) & 0xff;
+            int b = p & 0xff;
+            if (a != 0xff) {
+                r = (r * a + 0xff * (0xff - a)) / 0xff;
+                g = (g * a + 0xff * (0xff - a)) / 0xff;
+                b = (b * a + 0xff * (0xff - a)) / 0xff;
+            }
+            int cell = base + columnOf[x];
+            red[cell] += r;
+            green[cell] += g;
+            blue[cell] += b;
+            count[cell]++;
+        }
+    }
+
+    /**
+     * @return the average color of each cell as 0xRRGGBB, row by row;
+     * a cell that covers no pixel, as happens when the grid is finer than
+     * the image, is white
+     */
+    int[] averageRGB() {
+        int[] rgb = new int[columns * rows];
+        for (int i = 0; i < rgb.length; i++) {
+            if (count[i] == 0) {
+                rgb[i] = 0xffffff;
+                continue;
+            }
+            long half = count[i] / 2;
+            int r = (int) ((red[i] + half) / count[i]);
+            int g = (int) ((green[i] + half) / count[i]);
+            int b = (int) ((blue[i] + half) / count[i]);
+            rgb[i] = (r << 16) | (g << 8) | b;
+        }
+        return rgb;
+    }
+
+    /**
+     * @return the grid as an image of columns x rows pixels
+     */
+    BufferedImage toImage(int imageType) {
+        BufferedImage image = new BufferedImage(columns, rows, imageType);
+        image.setRGB(0, 0, columns, rows, averageRGB(), 0, columns);
+        return image;
+    }
+}
@@ -0,0 +1,274 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.map.Mapper;
+import com.kazurayam.materialstore.map.MappingListener;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Maps all the Materials in a MaterialList concurrently.
+ *
+ * A Mapper holds its Store and MappingListener in mutable fields, so a
+ * Mapper instance is never shared between threads: a new one is taken from
+ * the factory for each Material. The MappingListener, typically a
+ * MappedResultSerializer, is called by one thread at a time.
+ *
+ * No more than <code>concurrency</code> Materials are in progress at any
+ * time; the calling thread waits before submitting more. A Material that
+ * fails does not stop the others; the failures are reported in the
+ * BatchResult.
+ *
+ * On Java 21 and later the Materials are mapped on virtual threads,
+ * otherwise on a fixed thread pool of <code>concurrency</code> threads.
+ *
+ * <pre>
+ * BatchMapper batch = new BatchMapper(PDF2ImageMapper::new);
+ * batch.setStore(store);
+ * batch.setMappingListener(new MappedResultSerializer(store, jobName, jobTimestamp));
+ * batch.setConcurrency(8);
+ * BatchMapper.BatchResult result = batch.mapAll(materialList);
+ * </pre>
+ */
+public final class BatchMapper {
+
+    private final Supplier<? extends Mapper> mapperFactory;
+    private Store store;
+    private MappingListener listener;
+    private int concurrency;
+    private boolean virtualThreads;
+    private ExecutorService executorService;
+
+    public BatchMapper(Supplier<? extends Mapper> mapperFactory) {
+        Objects.requireNonNull(mapperFactory);
+        this.mapperFactory = mapperFactory;
+        this.store = null;
+        this.listener = null;
+        this.concurrency = Runtime.getRuntime().availableProcessors();
+        this.virtualThreads = true;
+        this.executorService = null;
+    }
+
+    public void setStore(Store store) {
+        Objects.requireNonNull(store);
+        this.store = store;
+    }
+
+    public void setMappingListener(MappingListener listener) {
+        Objects.requireNonNull(listener);
+        this.listener = listener;
+    }
+
+    /**
+     * max number of Materials mapped at a time.
+     * Default: the number of available processors
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException(
+                    "concurrency must be 1 or more: " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * If false, a fixed thread pool is used even where virtual threads are
+     * available. Default: true
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * The Materials are mapped on the given ExecutorService, which the
+     * caller owns and shuts down. The concurrency still applies.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * @return the outcome of the batch; this method throws only when
+     * interrupted, never because a Material failed
+     */
+    public BatchResult mapAll(MaterialList materialList) throws MaterialstoreException {
+        Objects.requireNonNull(materialList);
+        assert store != null;
+        assert listener != null;
+        //
+        ExecutorService executor = executorService;
+        boolean ownsExecutor = false;
+        if (executor == null) {
+            executor = virtualThreads ? newVirtualThreadExecutor() : null;
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(concurrency);
+            }
+            ownsExecutor = true;
+        }
+        CountingListener counting = new CountingListener(listener);
+        ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+        Semaphore permits = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < materialList.size(); i++) {
+                Material material = materialList.get(i);
+                int index = i;
+                permits.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            Mapper mapper = mapperFactory.get();
+                            mapper.setStore(store);
+                            mapper.setMappingListener(counting);
+                            mapper.map(material);
+                        } catch (Exception | LinkageError | AssertionError e) {
+                            failures.add(new Failure(index, material, e));
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    failures.add(new Failure(index, material, e));
+                }
+            }
+            // wait for the tasks in flight
+            permits.acquire(concurrency);
+            permits.release(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        } finally {
+            if (ownsExecutor) {
+                OrderedTasks.shutdown(executor);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        List<Failure> failed = new ArrayList<>(failures);
+        failed.sort(Comparator.comparingInt(Failure::getIndex));
+        return new BatchResult(materialList.size(), failed,
+                counting.outputs.get(), counting.outputBytes.get(), elapsed);
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() on Java 21+, otherwise null
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * passes the outputs to the listener one at a time, and counts them
+     */
+    private static final class CountingListener implements MappingListener {
+        private final MappingListener delegate;
+        private final AtomicLong outputs = new AtomicLong();
+        private final AtomicLong outputBytes = new AtomicLong();
+        CountingListener(MappingListener delegate) {
+            this.delegate = delegate;
+        }
+        @Override
+        public void onMapped(byte[] data, FileType fileType, Metadata metadata)
+                throws MaterialstoreException {
+            synchronized (this) {
+                delegate.onMapped(data, fileType, metadata);
+            }
+            outputs.incrementAndGet();
+            outputBytes.addAndGet(data.length);
+        }
+    }
+
+    /**
+     * a Material which could not be mapped
+     */
+    public static final class Failure {
+        private final int index;
+        private final Material material;
+        private final Throwable cause;
+        Failure(int index, Material material, Throwable cause) {
+            this.index = index;
+            this.material = material;
+            this.cause = cause;
+        }
+        /**
+         * @return the position of the Material in the MaterialList
+         */
+        public int getIndex() {
+            return index;
+        }
+        public Material getMaterial() {
+            return material;
+        }
+        public Throwable getCause() {
+            return cause;
+        }
+    }
+
+    public static final class BatchResult {
+        private final int materials;
+        private final List<Failure> failures;
+        private final long outputs;
+        private final long outputBytes;
+        private final long elapsedNanos;
+        BatchResult(int materials, List<Failure> failures,
+                    long outputs, long outputBytes, long elapsedNanos) {
+            this.materials = materials;
+            this.failures = Collections.unmodifiableList(failures);
+            this.outputs = outputs;
+            this.outputBytes = outputBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+        public int getMaterialCount() {
+            return materials;
+        }
+        public int getSucceededCount() {
+            return materials - failures.size();
+        }
+        public List<Failure> getFailures() {
+            return failures;
+        }
+        public long getOutputCount() {
+            return outputs;
+        }
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+        /**
+         * @return Materials mapped per second, failed ones included
+         */
+        public double getMaterialsPerSecond() {
+            return (elapsedNanos == 0) ? 0.0 : materials * 1e9 / elapsedNanos;
+        }
+        @Override
+        public String toString() {
+            return String.format("%d materials (%d failed), %d outputs, %d bytes, %.1f ms, %.2f materials/s",
+                    materials, failures.size(), outputs, outputBytes,
+                    elapsedNanos / 1e6, getMaterialsPerSecond());
+        }
+    }
+}
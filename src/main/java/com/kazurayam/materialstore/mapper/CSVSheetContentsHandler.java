@@ -0,0 +1,51 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives the cells of a sheet from XSSFSheetXMLHandler and prints
+ * each row into a CSVPrinter as soon as the row ends.
+ * Only a single row is held in memory at any time.
+ */
+final class CSVSheetContentsHandler implements SheetContentsHandler {
+
+    private final CSVPrinter printer;
+    private final List<String> cols;
+
+    CSVSheetContentsHandler(CSVPrinter printer) {
+        this.printer = printer;
+        this.cols = new ArrayList<>();
+    }
+
+    @Override
+    public void startRow(int rowNum) {
+        cols.clear();
+    }
+
+    @Override
+    public void endRow(int rowNum) {
+        try {
+            printer.printRecord(cols);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void cell(String cellReference, String formattedValue,
+                     XSSFComment comment) {
+        cols.add(formattedValue != null ? formattedValue : " ");
+    }
+
+    @Override
+    public void headerFooter(String text, boolean isHeader, String tagName) {
+        // headers and footers are not a part of the CSV
+    }
+}
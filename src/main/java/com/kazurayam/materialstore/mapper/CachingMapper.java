@@ -0,0 +1,219 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.map.Mapper;
+import com.kazurayam.materialstore.map.MappingListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * A Mapper that wraps any other Mapper and remembers its outputs.
+ *
+ * The outputs are keyed by the hash of the content and the metadata of the
+ * input Material, the class of the wrapped Mapper and a configuration string
+ * which must describe every setting of the wrapped Mapper that changes its
+ * outputs (e.g. "dpi=150,GRAY,tiling=-1"); two Mappers of the same class
+ * with different settings must not share a configuration string.
+ * The metadata is part of the key because mappers read it, as
+ * Excel2CSVMapperPOI3 reads "projection".
+ * When the same input is mapped again, the cached outputs are replayed to
+ * the MappingListener without invoking the wrapped Mapper.
+ * The metadata of the replayed outputs is the metadata of the current input
+ * Material plus the keys the wrapped Mapper added when the entry was made.
+ *
+ * Failing to write the cache does not fail the mapping; it is logged.
+ *
+ * <pre>
+ * MappingResultCache cache = new MappingResultCache(cacheDir, 2L * 1024 * 1024 * 1024);
+ * Mapper mapper = new CachingMapper(new PDF2ImageMapper(), cache, "dpi=300,RGB,PNG");
+ * </pre>
+ */
+public final class CachingMapper implements Mapper {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(CachingMapper.class);
+
+    private final Mapper delegate;
+    private final MappingResultCache cache;
+    private final String configuration;
+    private Store store;
+    private MappingListener listener;
+
+    public CachingMapper(Mapper delegate, MappingResultCache cache,
+                         String configuration) {
+        Objects.requireNonNull(delegate);
+        Objects.requireNonNull(cache);
+        Objects.requireNonNull(configuration);
+        if (configuration.trim().isEmpty()) {
+            throw new IllegalArgumentException(
+                    "configuration must describe the settings of the delegate");
+        }
+        this.delegate = delegate;
+        this.cache = cache;
+        this.configuration = configuration;
+        this.store = null;
+        this.listener = null;
+    }
+
+    @Override
+    public void setStore(Store store) {
+        Objects.requireNonNull(store);
+        this.store = store;
+        delegate.setStore(store);
+    }
+
+    @Override
+    public void setMappingListener(MappingListener listener) {
+        this.listener = listener;
+    }
+
+    public MappingResultCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void map(Material material) throws MaterialstoreException {
+        Objects.requireNonNull(material);
+        assert store != null;
+        assert listener != null;
+        //
+        String key = cacheKey(material);
+        List<MappingResultCache.CachedOutput> outputs = cache.get(key);
+        if (outputs != null) {
+            for (MappingResultCache.CachedOutput output : outputs) {
+                Metadata metadata = material.getMetadata();
+                for (Map.Entry<String, String> e : output.getMetadata().entrySet()) {
+                    metadata = Metadata.builder(metadata)
+                            .put(e.getKey(), e.getValue()).build();
+                }
+                listener.onMapped(output.getData(), output.getFileType(),
+                        metadata);
+            }
+            return;
+        }
+        MappingResultCache.Recorder recorder;
+        try {
+            recorder = cache.record(key);
+        } catch (MaterialstoreException e) {
+            logger.warn("failed to start caching the outputs of {}",
+                    delegate.getClass().getName(), e);
+            delegate.setMappingListener(listener);
+            delegate.map(material);
+            return;
+        }
+        Metadata inputMetadata = material.getMetadata();
+        // set once an output could not be staged; the rest are emitted only
+        boolean[] failed = new boolean[] { false };
+        delegate.setMappingListener((data, fileType, metadata) -> {
+            listener.onMapped(data, fileType, metadata);
+            if (failed[0]) {
+                return;
+            }
+            try {
+                recorder.add(data, fileType, addedKeys(inputMetadata, metadata));
+            } catch (MaterialstoreException e) {
+                failed[0] = true;
+                logger.warn("failed to cache an output of {}",
+                        delegate.getClass().getName(), e);
+            }
+        });
+        try {
+            delegate.map(material);
+        } catch (MaterialstoreException | RuntimeException e) {
+            recorder.abort();
+            throw e;
+        }
+        if (failed[0]) {
+            recorder.abort();
+            return;
+        }
+        try {
+            recorder.commit();
+        } catch (MaterialstoreException e) {
+            // the outputs have been emitted; only the cache entry is lost
+            logger.warn("failed to cache the outputs of {}", delegate.getClass().getName(), e);
+        }
+    }
+
+    private String cacheKey(Material material) throws MaterialstoreException {
+        MessageDigest digest = sha256();
+        digest.update(contentHash(material).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        digest.update(delegate.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        digest.update(configuration.getBytes(StandardCharsets.UTF_8));
+        Metadata metadata = material.getMetadata();
+        for (String key : new TreeSet<>(metadata.keySet())) {
+            digest.update((byte) '\n');
+            digest.update((key + "=" + metadata.get(key)).getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(digest.digest());
+    }
+
+    private String contentHash(Material material) throws MaterialstoreException {
+        MessageDigest digest = sha256();
+        File file = MaterialFiles.toFile(material);
+        if (file != null) {
+            byte[] buf = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    digest.update(buf, 0, n);
+                }
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+        } else {
+            digest.update(store.read(material));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the entries of the output metadata which the mapper added to,
+     * or changed from, the metadata of the input Material
+     */
+    private static Map<String, String> addedKeys(Metadata input, Metadata output) {
+        Map<String, String> added = new LinkedHashMap<>();
+        for (String key : output.keySet()) {
+            String value = output.get(key);
+            if (!input.containsKey(key) || !Objects.equals(input.get(key), value)) {
+                added.put(key, value);
+            }
+        }
+        return added;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
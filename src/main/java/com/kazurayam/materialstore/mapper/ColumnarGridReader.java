@@ -0,0 +1,226 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Reads a grid written by ColumnarGridWriter. Nothing is decoded up front:
+ * each accessor reads straight from slices of the underlying ByteBuffer, so
+ * a comparison can map a file and touch only the columns it needs.
+ * getDoubles() returns a view of a numeric column without copying it.
+ *
+ * An instance is immutable and safe to share between threads.
+ */
+public final class ColumnarGridReader {
+
+    /**
+     * The code of each type is what the directory entry of a column holds;
+     * it is part of the format and must never change.
+     */
+    public enum ColumnType {
+        DOUBLE(0), STRING(1), BOOLEAN(2), BLANK(3);
+
+        private final int code;
+
+        ColumnType(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public static ColumnType ofCode(int code) {
+            for (ColumnType type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("unknown column type " + code);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final int columnCount;
+    private final int words;
+
+    private ColumnarGridReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        for (int i = 0; i < ColumnarGridWriter.MAGIC.length; i++) {
+            if (buffer.get(i) != ColumnarGridWriter.MAGIC[i]) {
+                throw new IllegalArgumentException("not a columnar grid");
+            }
+        }
+        this.rowCount = buffer.getInt(8);
+        this.columnCount = buffer.getInt(12);
+        this.words = (rowCount + 63) / 64;
+    }
+
+    /**
+     * @param buffer the bytes from the position to the limit are read;
+     *               the buffer itself is not modified
+     */
+    public static ColumnarGridReader of(ByteBuffer buffer) {
+        Objects.requireNonNull(buffer);
+        return new ColumnarGridReader(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public static ColumnarGridReader of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * maps the file into memory read-only; the pages of the columns not
+     * accessed are never read from the disk
+     */
+    public static ColumnarGridReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public ColumnType getColumnType(int column) {
+        return ColumnType.ofCode(buffer.getInt(entry(column)));
+    }
+
+    public boolean isBlank(int row, int column) {
+        checkRow(row);
+        long word = buffer.getLong(sectionOffset(column) + (row >>> 6) * 8);
+        return (word & (1L << (row & 63))) != 0;
+    }
+
+    /**
+     * @return the bitmap of the blank cells of the column, bit set if blank
+     */
+    public LongBuffer getBlanks(int column) {
+        return slice(sectionOffset(column), words * 8).asLongBuffer();
+    }
+
+    /**
+     * @return the values of a DOUBLE column, 0 for the blank cells;
+     * a view of the underlying buffer
+     */
+    public DoubleBuffer getDoubles(int column) {
+        requireType(column, ColumnType.DOUBLE);
+        return slice(valuesOffset(column), rowCount * 8).asDoubleBuffer();
+    }
+
+    public double getDouble(int row, int column) {
+        requireType(column, ColumnType.DOUBLE);
+        checkRow(row);
+        return buffer.getDouble(valuesOffset(column) + row * 8);
+    }
+
+    public boolean getBoolean(int row, int column) {
+        requireType(column, ColumnType.BOOLEAN);
+        checkRow(row);
+        long word = buffer.getLong(valuesOffset(column) + (row >>> 6) * 8);
+        return (word & (1L << (row & 63))) != 0;
+    }
+
+    /**
+     * @return the number of distinct strings in a STRING column
+     */
+    public int getDictionarySize(int column) {
+        requireType(column, ColumnType.STRING);
+        return buffer.getInt(valuesOffset(column));
+    }
+
+    /**
+     * @return the dictionary code of the cell of a STRING column, -1 if blank.
+     * Two cells of a column hold the same string if and only if their codes are equal
+     */
+    public int getCode(int row, int column) {
+        requireType(column, ColumnType.STRING);
+        checkRow(row);
+        return buffer.getInt(valuesOffset(column) + 8 + row * 4);
+    }
+
+    /**
+     * @return the cell as a string whatever the type of the column,
+     * numbers as Double.toString() does; null if blank
+     */
+    public String getString(int row, int column) {
+        if (isBlank(row, column)) {
+            return null;
+        }
+        switch (getColumnType(column)) {
+            case DOUBLE:
+                return Double.toString(getDouble(row, column));
+            case BOOLEAN:
+                return Boolean.toString(getBoolean(row, column));
+            case STRING:
+                return decode(column, getCode(row, column));
+            default:
+                return null;
+        }
+    }
+
+    private String decode(int column, int code) {
+        int values = valuesOffset(column);
+        int dictionarySize = buffer.getInt(values);
+        int offsets = values + 8 + (int) ColumnarGridWriter.align((long) rowCount * 4);
+        int bytes = offsets + (int) ColumnarGridWriter.align((long) (dictionarySize + 1) * 4);
+        int start = buffer.getInt(offsets + code * 4);
+        int end = buffer.getInt(offsets + (code + 1) * 4);
+        byte[] utf8 = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(bytes + start);
+        view.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private int entry(int column) {
+        if (column < 0 || column >= columnCount) {
+            throw new IndexOutOfBoundsException(
+                    "column " + column + " of " + columnCount);
+        }
+        return ColumnarGridWriter.HEADER_SIZE
+                + ColumnarGridWriter.DIRECTORY_ENTRY_SIZE * column;
+    }
+
+    private int sectionOffset(int column) {
+        return (int) buffer.getLong(entry(column) + 8);
+    }
+
+    private int valuesOffset(int column) {
+        return sectionOffset(column) + words * 8;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + rowCount);
+        }
+    }
+
+    private void requireType(int column, ColumnType type) {
+        if (getColumnType(column) != type) {
+            throw new IllegalStateException("column " + column + " is "
+                    + getColumnType(column) + ", not " + type);
+        }
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,325 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a grid of cells, such as a sheet of a workbook, in a compact
+ * binary format which stores each column as a typed array, so that it can
+ * be read back with ColumnarGridReader without parsing any text.
+ *
+ * A column holding only numbers is stored as an array of double, a column
+ * holding only booleans as a bitmap; any other column is stored as
+ * dictionary-encoded UTF-8 strings, in which numbers are written as
+ * Double.toString() does. Blank cells are marked in a bitmap per column.
+ *
+ * <pre>
+ * offset 0   "MSGRID" 0 1       magic and version, 8 bytes
+ *        8   int rowCount, int columnCount
+ *        16  a directory entry per column, 24 bytes each:
+ *            int type, int 0, long offset, long length
+ *            where type is 0 DOUBLE, 1 STRING, 2 BOOLEAN, 3 BLANK
+ *        ... the column sections, each starting at a multiple of 8:
+ *            blank bitmap: (rowCount + 63) / 64 longs, bit set if blank
+ *            DOUBLE:  rowCount doubles, 0 for blank
+ *            BOOLEAN: (rowCount + 63) / 64 longs, bit set if true
+ *            STRING:  int dictionarySize, int 0,
+ *                     rowCount ints of dictionary codes, -1 for blank,
+ *                     dictionarySize + 1 ints of offsets into the bytes,
+ *                     the UTF-8 bytes of the dictionary entries
+ *            BLANK:   nothing more
+ * </pre>
+ * All values are little-endian; every array starts at a multiple of 8.
+ */
+public final class ColumnarGridWriter {
+
+    public static final String FORMAT = "columnar-grid";
+
+    static final byte[] MAGIC = { 'M', 'S', 'G', 'R', 'I', 'D', 0, 1 };
+    static final int HEADER_SIZE = 16;
+    static final int DIRECTORY_ENTRY_SIZE = 24;
+
+    // the kinds of the cells while they are collected; these are never
+    // written, a column is written with the code of its ColumnType
+    private static final byte BLANK = 0;
+    private static final byte NUMBER = 1;
+    private static final byte STRING = 2;
+    private static final byte BOOLEAN = 3;
+
+    private final List<Column> columns;
+    private int rowCount;
+
+    public ColumnarGridWriter() {
+        this.columns = new ArrayList<>();
+        this.rowCount = 0;
+    }
+
+    /**
+     * @param row 0-based
+     * @param column 0-based
+     */
+    public void addNumber(int row, int column, double value) {
+        column(column).set(row, NUMBER).numbers[row] = value;
+        touch(row);
+    }
+
+    public void addString(int row, int column, String value) {
+        if (value == null) {
+            return;
+        }
+        column(column).set(row, STRING).strings[row] = value;
+        touch(row);
+    }
+
+    public void addBoolean(int row, int column, boolean value) {
+        column(column).set(row, BOOLEAN).numbers[row] = value ? 1 : 0;
+        touch(row);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    public byte[] toByteArray() {
+        List<ByteBuffer> sections = new ArrayList<>(columns.size());
+        for (Column column : columns) {
+            sections.add(column.encode(rowCount));
+        }
+        long directoryEnd = HEADER_SIZE + (long) DIRECTORY_ENTRY_SIZE * columns.size();
+        long size = align(directoryEnd);
+        for (ByteBuffer section : sections) {
+            size += section.limit();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("grid too large: " + size + " bytes");
+        }
+        ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(MAGIC);
+        out.putInt(rowCount);
+        out.putInt(columns.size());
+        long offset = align(directoryEnd);
+        for (int i = 0; i < columns.size(); i++) {
+            out.putInt(columns.get(i).type().getCode());
+            out.putInt(0);
+            out.putLong(offset);
+            out.putLong(sections.get(i).limit());
+            offset += sections.get(i).limit();
+        }
+        out.position((int) align(directoryEnd));
+        for (ByteBuffer section : sections) {
+            out.put(section);
+        }
+        return out.array();
+    }
+
+    private Column column(int column) {
+        if (column < 0) {
+            throw new IllegalArgumentException("column must not be negative: " + column);
+        }
+        while (columns.size() <= column) {
+            columns.add(new Column());
+        }
+        return columns.get(column);
+    }
+
+    private void touch(int row) {
+        rowCount = Math.max(rowCount, row + 1);
+    }
+
+    static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    /**
+     * the cells of a column as they come, typed when encoded
+     */
+    private static final class Column {
+        private byte[] kinds = new byte[0];
+        private double[] numbers = new double[0];
+        private String[] strings = new String[0];
+        private int numberCount = 0;
+        private int stringCount = 0;
+        private int booleanCount = 0;
+
+        Column set(int row, byte kind) {
+            if (row < 0) {
+                throw new IllegalArgumentException("row must not be negative: " + row);
+            }
+            if (row >= kinds.length) {
+                int capacity = Math.max(row + 1, kinds.length * 2);
+                kinds = Arrays.copyOf(kinds, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                strings = Arrays.copyOf(strings, capacity);
+            }
+            uncount(kinds[row]);
+            kinds[row] = kind;
+            strings[row] = null;
+            if (kind == NUMBER) {
+                numberCount++;
+            } else if (kind == STRING) {
+                stringCount++;
+            } else if (kind == BOOLEAN) {
+                booleanCount++;
+            }
+            return this;
+        }
+
+        private void uncount(byte kind) {
+            if (kind == NUMBER) {
+                numberCount--;
+            } else if (kind == STRING) {
+                stringCount--;
+            } else if (kind == BOOLEAN) {
+                booleanCount--;
+            }
+        }
+
+        ColumnarGridReader.ColumnType type() {
+            if (stringCount > 0 || (numberCount > 0 && booleanCount > 0)) {
+                return ColumnarGridReader.ColumnType.STRING;
+            } else if (numberCount > 0) {
+                return ColumnarGridReader.ColumnType.DOUBLE;
+            } else if (booleanCount > 0) {
+                return ColumnarGridReader.ColumnType.BOOLEAN;
+            }
+            return ColumnarGridReader.ColumnType.BLANK;
+        }
+
+        private byte kind(int row) {
+            return (row < kinds.length) ? kinds[row] : BLANK;
+        }
+
+        ByteBuffer encode(int rowCount) {
+            ColumnarGridReader.ColumnType type = type();
+            int words = (rowCount + 63) / 64;
+            long[] blanks = new long[words];
+            for (int row = 0; row < rowCount; row++) {
+                if (kind(row) == BLANK) {
+                    blanks[row >>> 6] |= 1L << (row & 63);
+                }
+            }
+            switch (type) {
+                case DOUBLE: {
+                    ByteBuffer buf = allocate((long) words * 8 + (long) rowCount * 8);
+                    putLongs(buf, blanks);
+                    for (int row = 0; row < rowCount; row++) {
+                        buf.putDouble(kind(row) == NUMBER ? numbers[row] : 0);
+                    }
+                    return finish(buf);
+                }
+                case BOOLEAN: {
+                    ByteBuffer buf = allocate((long) words * 16);
+                    putLongs(buf, blanks);
+                    long[] values = new long[words];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (kind(row) == BOOLEAN && numbers[row] != 0) {
+                            values[row >>> 6] |= 1L << (row & 63);
+                        }
+                    }
+                    putLongs(buf, values);
+                    return finish(buf);
+                }
+                case STRING: {
+                    Map<String, Integer> dictionary = new LinkedHashMap<>();
+                    int[] codes = new int[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        String text = text(row);
+                        if (text == null) {
+                            codes[row] = -1;
+                        } else {
+                            Integer code = dictionary.get(text);
+                            if (code == null) {
+                                code = dictionary.size();
+                                dictionary.put(text, code);
+                            }
+                            codes[row] = code;
+                        }
+                    }
+                    List<byte[]> entries = new ArrayList<>(dictionary.size());
+                    long bytesLength = 0;
+                    for (String text : dictionary.keySet()) {
+                        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                        entries.add(bytes);
+                        bytesLength += bytes.length;
+                    }
+                    ByteBuffer buf = allocate((long) words * 8 + 8
+                            + align((long) rowCount * 4)
+                            + align((long) (entries.size() + 1) * 4)
+                            + align(bytesLength));
+                    putLongs(buf, blanks);
+                    buf.putInt(entries.size());
+                    buf.putInt(0);
+                    for (int code : codes) {
+                        buf.putInt(code);
+                    }
+                    pad(buf);
+                    int offset = 0;
+                    buf.putInt(offset);
+                    for (byte[] bytes : entries) {
+                        offset += bytes.length;
+                        buf.putInt(offset);
+                    }
+                    pad(buf);
+                    for (byte[] bytes : entries) {
+                        buf.put(bytes);
+                    }
+                    return finish(buf);
+                }
+                default: {
+                    ByteBuffer buf = allocate((long) words * 8);
+                    putLongs(buf, blanks);
+                    return finish(buf);
+                }
+            }
+        }
+
+        /**
+         * @return the cell as a string, for a column of mixed types
+         */
+        private String text(int row) {
+            switch (kind(row)) {
+                case NUMBER:
+                    return Double.toString(numbers[row]);
+                case BOOLEAN:
+                    return Boolean.toString(numbers[row] != 0);
+                case STRING:
+                    return strings[row];
+                default:
+                    return null;
+            }
+        }
+
+        private static ByteBuffer allocate(long size) {
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("column too large: " + size + " bytes");
+            }
+            return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static void putLongs(ByteBuffer buf, long[] values) {
+            for (long value : values) {
+                buf.putLong(value);
+            }
+        }
+
+        private static void pad(ByteBuffer buf) {
+            buf.position((int) align(buf.position()));
+        }
+
+        private static ByteBuffer finish(ByteBuffer buf) {
+            pad(buf);
+            buf.flip();
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.apache.poi.util.SAXHelper;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The shared strings table of a XLSX package kept on disk rather than on
+ * the heap, for the workbooks whose sharedStrings.xml is too large for
+ * ReadOnlySharedStringsTable.
+ *
+ * sharedStrings.xml is parsed with SAX once. The strings are written as
+ * UTF-8 into a data file, and the offset of each string into an offset
+ * file of 8-byte entries; both are memory-mapped. A string is decoded on
+ * get(), and a small LRU cache keeps the strings used most recently.
+ * The heap needed does not grow with the number of strings.
+ *
+ * An instance is thread-safe. close() deletes the temporary files.
+ */
+final class DiskSharedStrings implements Closeable {
+
+    // the size of a mapped segment; a multiple of 8, so an offset never straddles two
+    private static final int SEGMENT = 1 << 30;
+
+    private final Path dataFile;
+    private final Path offsetFile;
+    private final FileChannel dataChannel;
+    private final MappedByteBuffer[] data;
+    private final MappedByteBuffer[] offsets;
+    private final int count;
+    private final Map<Integer, String> cache;
+
+    private DiskSharedStrings(Path dataFile, Path offsetFile, int count,
+                              int cacheSize) throws IOException {
+        this.dataFile = dataFile;
+        this.offsetFile = offsetFile;
+        this.count = count;
+        this.dataChannel = FileChannel.open(dataFile, StandardOpenOption.READ);
+        this.data = map(dataChannel);
+        try (FileChannel channel = FileChannel.open(offsetFile, StandardOpenOption.READ)) {
+            this.offsets = map(channel);
+        }
+        this.cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param sharedStringsXml the content of xl/sharedStrings.xml
+     * @param tempDirectory where to create the temporary files;
+     *                      null for the system default
+     * @param cacheSize the number of decoded strings to keep on the heap
+     */
+    static DiskSharedStrings build(InputStream sharedStringsXml,
+                                   Path tempDirectory, int cacheSize)
+            throws IOException, SAXException, ParserConfigurationException {
+        Path dataFile = createTempFile(tempDirectory, ".data");
+        Path offsetFile = createTempFile(tempDirectory, ".offsets");
+        try {
+            int count;
+            try (OutputStream dataOut = new BufferedOutputStream(
+                         Files.newOutputStream(dataFile), 64 * 1024);
+                 DataOutputStream offsetOut = new DataOutputStream(
+                         new BufferedOutputStream(
+                                 Files.newOutputStream(offsetFile), 64 * 1024))) {
+                TableHandler handler = new TableHandler(dataOut, offsetOut);
+                XMLReader parser = SAXHelper.newXMLReader();
+                parser.setContentHandler(handler);
+                try {
+                    parser.parse(new InputSource(sharedStringsXml));
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                // the end of the last string
+                offsetOut.writeLong(handler.offset);
+                count = handler.count;
+            }
+            return new DiskSharedStrings(dataFile, offsetFile, count, cacheSize);
+        } catch (IOException | SAXException | ParserConfigurationException
+                 | RuntimeException e) {
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(offsetFile);
+            throw e;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param index 0-based, as in the &lt;v&gt; of a cell of t="s"
+     */
+    String get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(
+                    "index " + index + " of " + count + " shared strings");
+        }
+        synchronized (cache) {
+            String cached = cache.get(index);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long start = offsetAt(index);
+        int length = (int) (offsetAt(index + 1) - start);
+        if (length == 0) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        int segment = (int) (start / SEGMENT);
+        int position = (int) (start % SEGMENT);
+        if (position + length <= data[segment].capacity()) {
+            ByteBuffer view = data[segment].duplicate();
+            view.position(position);
+            view.get(bytes);
+        } else {
+            // the rare string which straddles two segments
+            readFully(start, bytes);
+        }
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        synchronized (cache) {
+            cache.put(index, value);
+        }
+        return value;
+    }
+
+    private long offsetAt(int index) {
+        long position = (long) index * 8;
+        return offsets[(int) (position / SEGMENT)].getLong((int) (position % SEGMENT));
+    }
+
+    private void readFully(long position, byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                int n = dataChannel.read(buffer, position + buffer.position());
+                if (n < 0) {
+                    throw new IOException("unexpected end of " + dataFile);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataChannel.close();
+        synchronized (cache) {
+            cache.clear();
+        }
+        // on some platforms a mapped file cannot be deleted until unmapped by GC
+        for (Path file : new Path[] { dataFile, offsetFile }) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int segments = (int) Math.max(1, (size + SEGMENT - 1) / SEGMENT);
+        MappedByteBuffer[] buffers = new MappedByteBuffer[segments];
+        for (int i = 0; i < segments; i++) {
+            long position = (long) i * SEGMENT;
+            buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(SEGMENT, size - position));
+        }
+        return buffers;
+    }
+
+    private static Path createTempFile(Path tempDirectory, String suffix)
+            throws IOException {
+        return (tempDirectory != null)
+                ? Files.createTempFile(tempDirectory, "sharedStrings", suffix)
+                : Files.createTempFile("sharedStrings", suffix);
+    }
+
+    /**
+     * writes the text of each &lt;si&gt; as it ends; rich text runs are
+     * concatenated, as ReadOnlySharedStringsTable does
+     */
+    private static final class TableHandler extends DefaultHandler {
+        private final OutputStream dataOut;
+        private final DataOutputStream offsetOut;
+        private final StringBuilder text;
+        private boolean inText;
+        private long offset;
+        private int count;
+
+        TableHandler(OutputStream dataOut, DataOutputStream offsetOut) {
+            this.dataOut = dataOut;
+            this.offsetOut = offsetOut;
+            this.text = new StringBuilder();
+            this.inText = false;
+            this.offset = 0;
+            this.count = 0;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) {
+            String name = localName.isEmpty() ? qName : localName;
+            if ("si".equals(name)) {
+                text.setLength(0);
+            } else if ("t".equals(name)) {
+                inText = true;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            String name = localName.isEmpty() ? qName : localName;
+            if ("t".equals(name)) {
+                inText = false;
+            } else if ("si".equals(name)) {
+                byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                try {
+                    offsetOut.writeLong(offset);
+                    dataOut.write(bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                offset += bytes.length;
+                count++;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inText) {
+                text.append(ch, start, length);
+            }
+        }
+    }
+}
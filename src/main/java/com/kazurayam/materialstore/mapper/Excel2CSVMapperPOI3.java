@@ -9,37 +9,66 @@ import com.kazurayam.materialstore.map.Mapper;
 import com.kazurayam.materialstore.map.MappingListener;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.openxml4j.opc.OPCPackage;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
 import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFCell;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Apache POI v3.17
  */
-public final class Excel2CSVMapperPOI3 implements Mapper {
+public final class Excel2CSVMapperPOI3 implements Mapper, Instrumentable {
 
     private Store store;
     private MappingListener listener;
 
     private final String key_sheet_index = "sheet_index";
     private final String key_sheet_name = "sheet_name";
+    private final String key_projection = "projection";
+    private final String key_format = "format";
+
+    private boolean streaming;
+    private int parallelism;
+    private ExecutorService executorService;
+    private MapperMetrics metrics;
+    private SheetProjection projection;
+    private long sharedStringsThreshold;
+    private Path sharedStringsDirectory;
+    private FormulaMode formulaMode;
+    private FileType columnarGrid;
 
     public Excel2CSVMapperPOI3() {
         store = null;
         listener = null;
+        streaming = false;
+        parallelism = 1;
+        executorService = null;
+        metrics = MapperMetrics.NOOP;
+        projection = SheetProjection.ALL;
+        sharedStringsThreshold = XlsxStreamingConverter.DEFAULT_SHARED_STRINGS_THRESHOLD;
+        sharedStringsDirectory = null;
+        formulaMode = FormulaMode.FORMULA_TEXT;
+        columnarGrid = null;
     }
 
     @Override
@@ -52,73 +81,429 @@ public final class Excel2CSVMapperPOI3 implements Mapper {
         this.listener = listener;
     }
 
+    /**
+     * If set true, the workbook is read with the event API of Apache POI
+     * (XSSFReader + XSSFSheetXMLHandler) and each sheet is converted into
+     * CSV row by row, without building a XSSFWorkbook in memory.
+     * Recommended for large workbooks. Default: false
+     *
+     * The CSV has the same sheets and rows, but the text of the cells is
+     * not the same as in the DOM mode:
+     * - a number is formatted by DataFormatter with the format of its cell,
+     *   "1" where the DOM mode writes Double.toString(), "1.0";
+     * - a date is formatted with the date format of its cell, where the DOM
+     *   mode writes Date.toString(), e.g. "Sat Feb 26 00:00:00 JST 2022";
+     * - a boolean is "TRUE" or "FALSE" rather than "true" or "false";
+     * - a blank cell that has a style only is dropped, where the DOM mode
+     *   writes " ", so the cells right of it shift to the left.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * If set 2 or more, the sheets are parsed and encoded into CSV
+     * concurrently, with at most this many sheets in flight at a time.
+     * The MappingListener is still notified in the order of sheet_index.
+     * Parallel conversion implies the streaming mode. Default: 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "parallelism must be 1 or more: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The sheets are converted on the given ExecutorService, which the
+     * caller owns and shuts down. If not set, a ForkJoinPool sized to
+     * the parallelism is created per map() call. Setting this implies
+     * the streaming mode.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Converts only the sheets, columns and rows selected by the projection,
+     * e.g. SheetProjection.parse("sheets=Summary;columns=A:D;rows=2-").
+     * A Material can carry a projection of its own in the "projection"
+     * metadata, which then takes precedence over this one.
+     * The sheets left out are not parsed at all, and the cells left out are
+     * skipped while parsing. A projection implies the streaming mode.
+     * Default: SheetProjection.ALL
+     */
+    public void setProjection(SheetProjection projection) {
+        Objects.requireNonNull(projection);
+        this.projection = projection;
+    }
+
+    /**
+     * In the streaming mode, if the sharedStrings.xml of a workbook is larger
+     * than this, the shared strings table is kept in memory-mapped temporary
+     * files rather than on the heap, so that the heap needed stays flat
+     * however many strings the workbook has.
+     * Default: 64 MiB; -1 to keep the table on the heap always
+     */
+    public void setSharedStringsThreshold(long bytes) {
+        if (bytes < -1) {
+            throw new IllegalArgumentException("bytes must be -1 or more: " + bytes);
+        }
+        this.sharedStringsThreshold = bytes;
+    }
+
+    /**
+     * The directory where the temporary files of a shared strings table kept
+     * on disk are created; they are as large as sharedStrings.xml unzipped.
+     * Default: null, the directory of java.io.tmpdir
+     */
+    public void setSharedStringsDirectory(Path directory) {
+        this.sharedStringsDirectory = directory;
+    }
+
+    /**
+     * What to write for the cells with a formula: the formula text, the
+     * result cached in the workbook, or the result evaluated if not cached.
+     * Default: FormulaMode.FORMULA_TEXT
+     */
+    public void setFormulaMode(FormulaMode formulaMode) {
+        Objects.requireNonNull(formulaMode);
+        this.formulaMode = formulaMode;
+    }
+
+    /**
+     * If set, each sheet is written with ColumnarGridWriter instead of as
+     * CSV: numbers are kept as doubles rather than turned into text.
+     * The cells are placed at their row and column in the sheet, so blank
+     * cells do not shift the cells to their right as in the CSV.
+     * This implies the DOM mode; a projection still selects the sheets,
+     * columns and rows.
+     *
+     * The grids are binary, but materialstore has no FileType for binary
+     * data, so the caller has to name the FileType they are labelled with,
+     * typically FileType.TXT. Whatever it is, the Store and anything that
+     * goes by the FileType will take the grids for that type: a TXT grid is
+     * diffed and shown as text, which is garbage, and a CSV or XLSX grid
+     * cannot be parsed as one. Tell the grids apart by the "format" metadata
+     * of ColumnarGridWriter.FORMAT, and keep them out of the diffs.
+     * Default: null, to write CSV
+     */
+    public void setColumnarGrid(FileType fileType) {
+        this.columnarGrid = fileType;
+    }
+
+    @Override
+    public void setMetrics(MapperMetrics metrics) {
+        Objects.requireNonNull(metrics);
+        this.metrics = metrics;
+    }
+
     @Override
     public void map(Material excelMaterial) throws MaterialstoreException {
         Objects.requireNonNull(excelMaterial);
         assert store != null;
         assert listener != null;
         assert excelMaterial.getFileType() == FileType.XLSX;
+        // before the package is opened, so that a bad projection leaks nothing
+        SheetProjection projection = projectionOf(excelMaterial);
         //
-        byte[] data = store.read(excelMaterial);
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // opens the file in the store directly rather than a copy in byte[]
+        long start = System.nanoTime();
+        OPCPackage pkg = MaterialFiles.openPackage(store, excelMaterial);
+        metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                System.nanoTime() - start);
+        if (columnarGrid == null && (streaming || parallelism > 1
+                || executorService != null || !projection.isAll())) {
+            mapStreaming(excelMaterial, pkg, projection);
+            return;
+        }
         // do data format conversion
         Workbook workbook;
+        start = System.nanoTime();
         try {
-            workbook = new XSSFWorkbook(bais);
+            workbook = new XSSFWorkbook(pkg);
         } catch (IOException e) {
+            pkg.revert();
             throw new MaterialstoreException(e);
         }
-        int numberOfSheets = workbook.getNumberOfSheets();
-        for (int i = 0; i < numberOfSheets; i++) {
-            Sheet sheet = workbook.getSheetAt(i);
-            List<List<String>> grid = readSheet(sheet);
+        metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                System.nanoTime() - start);
+        // made once per workbook, so that its cache of evaluated cells is shared by the sheets
+        FormulaEvaluator evaluator = (formulaMode == FormulaMode.EVALUATE)
+                ? workbook.getCreationHelper().createFormulaEvaluator()
+                : null;
+        try {
+            int numberOfSheets = workbook.getNumberOfSheets();
+            metrics.recordUnits(getClass(), MapperMetrics.UNIT_SHEETS, numberOfSheets);
+            List<String> sheetNames = new ArrayList<>();
+            for (int i = 0; i < numberOfSheets; i++) {
+                sheetNames.add(workbook.getSheetName(i));
+            }
+            SheetProjection selection = projection.resolve(sheetNames);
+            for (int i = 0; i < numberOfSheets; i++) {
+                Sheet sheet = workbook.getSheetAt(i);
+                if (!selection.includesSheet(i, sheet.getSheetName())) {
+                    continue;
+                }
+                long encodeStart = System.nanoTime();
+                if (columnarGrid != null) {
+                    byte[] data = readSheetColumnar(sheet, evaluator,
+                            projection).toByteArray();
+                    metrics.recordPhase(getClass(), MapperMetrics.Phase.ENCODE,
+                            System.nanoTime() - encodeStart);
+                    Metadata metadata =
+                            Metadata.builder(excelMaterial.getMetadata())
+                                    .put(key_sheet_index, Integer.toString(i))
+                                    .put(key_sheet_name, sheet.getSheetName())
+                                    .put(key_format, ColumnarGridWriter.FORMAT)
+                                    .build();
+                    listener.onMapped(data, columnarGrid, metadata);
+                    continue;
+                }
+                List<List<String>> grid = readSheet(sheet, evaluator);
+                // one buffer per sheet, so that a CSV holds its own sheet only
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try {
+                    writeGrid(grid, baos);
+                } catch (IOException e) {
+                    throw new MaterialstoreException(e);
+                }
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.ENCODE,
+                        System.nanoTime() - encodeStart);
+                Metadata metadata =
+                        Metadata.builder(excelMaterial.getMetadata())
+                                .put(key_sheet_index, Integer.toString(i))
+                                .put(key_sheet_name, sheet.getSheetName())
+                                .build();
+                listener.onMapped(baos.toByteArray(), FileType.CSV,
+                        metadata);
+            }
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private SheetProjection projectionOf(Material excelMaterial)
+            throws MaterialstoreException {
+        Metadata metadata = excelMaterial.getMetadata();
+        if (metadata.containsKey(key_projection)) {
             try {
-                writeGrid(grid, baos);
-            } catch (IOException e) {
-                throw new MaterialstoreException(e);
+                return SheetProjection.parse(metadata.get(key_projection));
+            } catch (IllegalArgumentException e) {
+                throw new MaterialstoreException(
+                        "invalid \"" + key_projection + "\" metadata", e);
             }
-            Metadata metadata =
-                    Metadata.builder(excelMaterial.getMetadata())
-                            .put(key_sheet_index, Integer.toString(i))
-                            .put(key_sheet_name, sheet.getSheetName())
-                            .build();
-            listener.onMapped(baos.toByteArray(), FileType.CSV,
-                    metadata);
         }
+        return projection;
     }
 
-    private List<List<String>> readSheet(Sheet sheet) {
+    private void mapStreaming(Material excelMaterial, OPCPackage pkg,
+                              SheetProjection projection)
+            throws MaterialstoreException {
+        ExecutorService executor = executorService;
+        boolean ownsExecutor = false;
+        if (executor == null && parallelism > 1) {
+            executor = new ForkJoinPool(parallelism);
+            ownsExecutor = true;
+        }
+        // parsing and encoding are done in one pass; reported as PARSE
+        // excluding the time spent in the MappingListener
+        long[] emitted = new long[2];   // nanos, sheets
+        long start = System.nanoTime();
+        try {
+            new XlsxStreamingConverter(executor, parallelism, projection,
+                    sharedStringsThreshold, sharedStringsDirectory,
+                    formulaMode == FormulaMode.FORMULA_TEXT).convert(pkg,
+                    (sheetIndex, sheetName, csv) -> {
+                        long emitStart = System.nanoTime();
+                        Metadata metadata =
+                                Metadata.builder(excelMaterial.getMetadata())
+                                        .put(key_sheet_index, Integer.toString(sheetIndex))
+                                        .put(key_sheet_name, sheetName)
+                                        .build();
+                        listener.onMapped(csv, FileType.CSV, metadata);
+                        emitted[0] += System.nanoTime() - emitStart;
+                        emitted[1]++;
+                    });
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                    System.nanoTime() - start - emitted[0]);
+            metrics.recordUnits(getClass(), MapperMetrics.UNIT_SHEETS, emitted[1]);
+        } finally {
+            // the sheets still being parsed read the package
+            if (ownsExecutor) {
+                OrderedTasks.shutdown(executor);
+            }
+            pkg.revert();
+        }
+    }
+
+    private List<List<String>> readSheet(Sheet sheet, FormulaEvaluator evaluator) {
         List<List<String>> grid = new ArrayList<>();
         for (Row row : sheet) {
             List<String> cols = new ArrayList<>();
             for (Cell cell : row) {
-                switch (cell.getCellTypeEnum()) {
+                CellType type = cell.getCellTypeEnum();
+                if (type == CellType.FORMULA) {
+                    cols.add(readFormulaCell(cell, evaluator));
+                } else {
+                    cols.add(cellValue(cell, type));
+                }
+            }
+            grid.add(cols);
+        }
+        return grid;
+    }
+
+    private ColumnarGridWriter readSheetColumnar(Sheet sheet,
+                                                 FormulaEvaluator evaluator,
+                                                 SheetProjection projection) {
+        ColumnarGridWriter grid = new ColumnarGridWriter();
+        for (Row row : sheet) {
+            int r = row.getRowNum();
+            if (!projection.includesRow(r)) {
+                continue;
+            }
+            for (Cell cell : row) {
+                int c = cell.getColumnIndex();
+                if (!projection.includesColumn(c)) {
+                    continue;
+                }
+                CellType type = cell.getCellTypeEnum();
+                if (type == CellType.FORMULA) {
+                    if (formulaMode == FormulaMode.FORMULA_TEXT) {
+                        grid.addString(r, c, cell.getCellFormula());
+                        continue;
+                    }
+                    if (hasCachedValue(cell)) {
+                        type = cell.getCachedFormulaResultTypeEnum();
+                    } else {
+                        if (evaluator != null) {
+                            addCellValue(grid, r, c, cell, evaluator.evaluate(cell));
+                        }
+                        continue;
+                    }
+                }
+                switch (type) {
                     case STRING:
-                        cols.add(cell.getRichStringCellValue().getString());
+                        grid.addString(r, c, cell.getRichStringCellValue().getString());
                         break;
                     case NUMERIC:
                         if (DateUtil.isCellDateFormatted(cell)) {
-                            cols.add(cell.getDateCellValue() + "");
+                            grid.addString(r, c, cell.getDateCellValue() + "");
                         } else {
-                            cols.add(cell.getNumericCellValue() + "");
+                            grid.addNumber(r, c, cell.getNumericCellValue());
                         }
                         break;
                     case BOOLEAN:
-                        cols.add(cell.getBooleanCellValue() + "");
+                        grid.addBoolean(r, c, cell.getBooleanCellValue());
                         break;
-                    case FORMULA:
-                        cols.add(cell.getCellFormula() + "");
+                    case ERROR:
+                        grid.addString(r, c,
+                                FormulaError.forInt(cell.getErrorCellValue()).getString());
                         break;
                     default:
-                        cols.add(" ");
+                        // blank
                 }
             }
-            grid.add(cols);
         }
         return grid;
     }
 
+    private static void addCellValue(ColumnarGridWriter grid, int r, int c,
+                                     Cell cell, CellValue value) {
+        if (value == null) {
+            return;
+        }
+        switch (value.getCellTypeEnum()) {
+            case STRING:
+                grid.addString(r, c, value.getStringValue());
+                break;
+            case NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell)) {
+                    grid.addString(r, c, DateUtil.getJavaDate(value.getNumberValue()) + "");
+                } else {
+                    grid.addNumber(r, c, value.getNumberValue());
+                }
+                break;
+            case BOOLEAN:
+                grid.addBoolean(r, c, value.getBooleanValue());
+                break;
+            case ERROR:
+                grid.addString(r, c, FormulaError.forInt(value.getErrorValue()).getString());
+                break;
+            default:
+                // blank
+        }
+    }
+
+    private String readFormulaCell(Cell cell, FormulaEvaluator evaluator) {
+        if (formulaMode == FormulaMode.FORMULA_TEXT) {
+            return cell.getCellFormula() + "";
+        }
+        if (hasCachedValue(cell)) {
+            CellType cached = cell.getCachedFormulaResultTypeEnum();
+            if (cached == CellType.ERROR) {
+                return FormulaError.forInt(cell.getErrorCellValue()).getString();
+            }
+            return cellValue(cell, cached);
+        }
+        if (evaluator == null) {
+            return "";
+        }
+        CellValue value = evaluator.evaluate(cell);
+        if (value == null) {
+            return "";
+        }
+        switch (value.getCellTypeEnum()) {
+            case STRING:
+                return value.getStringValue();
+            case NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell)) {
+                    return DateUtil.getJavaDate(value.getNumberValue()) + "";
+                }
+                return value.getNumberValue() + "";
+            case BOOLEAN:
+                return value.getBooleanValue() + "";
+            case ERROR:
+                return FormulaError.forInt(value.getErrorValue()).getString();
+            default:
+                return " ";
+        }
+    }
+
+    /**
+     * @return false if the workbook was saved without the result of the formula
+     */
+    private static boolean hasCachedValue(Cell cell) {
+        if (cell instanceof XSSFCell) {
+            return ((XSSFCell) cell).getCTCell().isSetV();
+        }
+        return true;
+    }
+
+    /**
+     * @param type the type of the cell, or the type of the cached result of a formula
+     */
+    private static String cellValue(Cell cell, CellType type) {
+        switch (type) {
+            case STRING:
+                return cell.getRichStringCellValue().getString();
+            case NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell)) {
+                    return cell.getDateCellValue() + "";
+                } else {
+                    return cell.getNumericCellValue() + "";
+                }
+            case BOOLEAN:
+                return cell.getBooleanCellValue() + "";
+            case FORMULA:
+                return cell.getCellFormula() + "";
+            default:
+                return " ";
+        }
+    }
+
     private void writeGrid(List<List<String>> grid,
                                    OutputStream os) throws IOException {
         Appendable out = new OutputStreamWriter(os, StandardCharsets.UTF_8);
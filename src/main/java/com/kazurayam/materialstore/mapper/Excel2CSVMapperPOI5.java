@@ -3,37 +3,52 @@ package com.kazurayam.materialstore.mapper;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.map.Mapper;
 import com.kazurayam.materialstore.map.MappingListener;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Apache POI v3.17
  */
-public final class Excel2CSVMapperPOI5 implements Mapper {
+public final class Excel2CSVMapperPOI5 implements Mapper, Instrumentable {
 
     private Store store;
     private MappingListener listener;
 
+    private final String key_sheet_index = "sheet_index";
+    private final String key_sheet_name = "sheet_name";
+
+    private boolean streaming;
+    private int parallelism;
+    private ExecutorService executorService;
+    private MapperMetrics metrics;
+
     public Excel2CSVMapperPOI5() {
         store = null;
         listener = null;
+        streaming = false;
+        parallelism = 1;
+        executorService = null;
+        metrics = MapperMetrics.NOOP;
     }
 
     @Override
@@ -46,6 +61,46 @@ public final class Excel2CSVMapperPOI5 implements Mapper {
         this.listener = listener;
     }
 
+    /**
+     * If set true, the workbook is read with the event API of Apache POI
+     * (XSSFReader + XSSFSheetXMLHandler) and each sheet is converted into
+     * CSV row by row, without building a XSSFWorkbook in memory.
+     * Recommended for large workbooks. Default: false
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * If set 2 or more, the sheets are parsed and encoded into CSV
+     * concurrently, with at most this many sheets in flight at a time.
+     * The MappingListener is still notified in the order of sheet_index.
+     * Parallel conversion implies the streaming mode. Default: 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "parallelism must be 1 or more: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The sheets are converted on the given ExecutorService, which the
+     * caller owns and shuts down. If not set, a ForkJoinPool sized to
+     * the parallelism is created per map() call. Setting this implies
+     * the streaming mode.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    @Override
+    public void setMetrics(MapperMetrics metrics) {
+        Objects.requireNonNull(metrics);
+        this.metrics = metrics;
+    }
+
     @Override
     public void map(Material excelMaterial) throws MaterialstoreException {
         Objects.requireNonNull(excelMaterial);
@@ -53,62 +108,121 @@ public final class Excel2CSVMapperPOI5 implements Mapper {
         assert listener != null;
         assert excelMaterial.getFileType() == FileType.XLSX;
         //
-        byte[] data = store.read(excelMaterial);
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // opens the file in the store directly rather than a copy in byte[]
+        long start = System.nanoTime();
+        OPCPackage pkg = MaterialFiles.openPackage(store, excelMaterial);
+        metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                System.nanoTime() - start);
+        if (streaming || parallelism > 1 || executorService != null) {
+            mapStreaming(excelMaterial, pkg);
+            return;
+        }
         // do data format conversion
         Workbook workbook;
+        start = System.nanoTime();
+        try {
+            workbook = new XSSFWorkbook(pkg);
+        } catch (IOException e) {
+            pkg.revert();
+            throw new MaterialstoreException(e);
+        }
+        metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                System.nanoTime() - start);
         try {
-            workbook = new XSSFWorkbook(bais);
+            int numberOfSheets = workbook.getNumberOfSheets();
+            metrics.recordUnits(getClass(), MapperMetrics.UNIT_SHEETS, numberOfSheets);
+            for (int i = 0; i < numberOfSheets; i++) {
+                Sheet sheet = workbook.getSheetAt(i);
+                // a buffer per sheet, so that a CSV contains its own sheet only
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                long encodeStart = System.nanoTime();
+                writeSheet(sheet, baos);
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.ENCODE,
+                        System.nanoTime() - encodeStart);
+                Metadata metadata =
+                        Metadata.builder(excelMaterial.getMetadata())
+                                .put(key_sheet_index, Integer.toString(i))
+                                .put(key_sheet_name, sheet.getSheetName())
+                                .build();
+                listener.onMapped(baos.toByteArray(), FileType.CSV,
+                        metadata);
+            }
         } catch (IOException e) {
             throw new MaterialstoreException(e);
+        } finally {
+            pkg.revert();
         }
-        // FIX ME
     }
 
-    private List<List<String>> readSheet(Sheet sheet) {
-        List<List<String>> grid = new ArrayList<>();
-        for (Row row : sheet) {
-            List<String> cols = new ArrayList<>();
-            /*
-            for (Cell cell : row) {
-                switch (cell.getCellType()) {
-                    case STRING:
-                        cols.add(cell.getRichStringCellValue().getString());
-                        break;
-                    case NUMERIC:
-                        if (DateUtil.isCellDateFormatted(cell)) {
-                            cols.add(cell.getDateCellValue() + "");
-                        } else {
-                            cols.add(cell.getNumericCellValue() + "");
-                        }
-                        break;
-                    case BOOLEAN:
-                        cols.add(cell.getBooleanCellValue() + "");
-                        break;
-                    case FORMULA:
-                        cols.add(cell.getCellFormula() + "");
-                        break;
-                    default:
-                        cols.add(" ");
-                }
+    private void mapStreaming(Material excelMaterial, OPCPackage pkg)
+            throws MaterialstoreException {
+        ExecutorService executor = executorService;
+        boolean ownsExecutor = false;
+        if (executor == null && parallelism > 1) {
+            executor = new ForkJoinPool(parallelism);
+            ownsExecutor = true;
+        }
+        // parsing and encoding are done in one pass; reported as PARSE
+        // excluding the time spent in the MappingListener
+        long[] emitted = new long[2];   // nanos, sheets
+        long start = System.nanoTime();
+        try {
+            new XlsxStreamingConverter(executor, parallelism).convert(pkg,
+                    (sheetIndex, sheetName, csv) -> {
+                        long emitStart = System.nanoTime();
+                        Metadata metadata =
+                                Metadata.builder(excelMaterial.getMetadata())
+                                        .put(key_sheet_index, Integer.toString(sheetIndex))
+                                        .put(key_sheet_name, sheetName)
+                                        .build();
+                        listener.onMapped(csv, FileType.CSV, metadata);
+                        emitted[0] += System.nanoTime() - emitStart;
+                        emitted[1]++;
+                    });
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                    System.nanoTime() - start - emitted[0]);
+            metrics.recordUnits(getClass(), MapperMetrics.UNIT_SHEETS, emitted[1]);
+        } finally {
+            // the sheets still being parsed read the package
+            if (ownsExecutor) {
+                OrderedTasks.shutdown(executor);
             }
-             */
-            grid.add(cols);
+            pkg.revert();
         }
-        return grid;
     }
 
-    private void writeGrid(List<List<String>> grid,
-                                   OutputStream os) throws IOException {
+    /**
+     * prints each row into the CSVPrinter as soon as it is iterated,
+     * without building an intermediate grid
+     */
+    private void writeSheet(Sheet sheet, OutputStream os) throws IOException {
         Appendable out = new OutputStreamWriter(os, StandardCharsets.UTF_8);
         try (CSVPrinter printer = new CSVPrinter(out, CSVFormat.EXCEL)) {
-            for (List<String> cols : grid) {
-                printer.printRecord(cols);
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    printer.print(toText(cell));
+                }
+                printer.println();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
-}
 
+    private String toText(Cell cell) {
+        switch (cell.getCellTypeEnum()) {
+            case STRING:
+                return cell.getRichStringCellValue().getString();
+            case NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell)) {
+                    return cell.getDateCellValue() + "";
+                } else {
+                    return cell.getNumericCellValue() + "";
+                }
+            case BOOLEAN:
+                return cell.getBooleanCellValue() + "";
+            case FORMULA:
+                return cell.getCellFormula() + "";
+            default:
+                return " ";
+        }
+    }
+}
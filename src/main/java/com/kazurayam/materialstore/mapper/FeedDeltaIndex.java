@@ -0,0 +1,264 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Remembers, per feed, which entries were seen by the previous mapping
+ * and what they looked like, so that the feed mappers can emit only the
+ * entries which are new or changed since then.
+ *
+ * A feed is identified by the JobName and the Metadata of its Material.
+ * For each feed a small text file is kept in the directory: the JobTimestamp
+ * of the previous mapping, then a line per entry holding two 64-bit hashes,
+ * one of the entry key (guid, id or link) and one of the row content.
+ *
+ * <pre>
+ * RSS2CSVMapper mapper = new MyFeedMapper();
+ * mapper.setDeltaIndex(new FeedDeltaIndex(indexDir));
+ * </pre>
+ */
+public final class FeedDeltaIndex {
+
+    private static final String BASE_PREFIX = "base ";
+
+    private final Path directory;
+
+    public FeedDeltaIndex(Path directory) throws MaterialstoreException {
+        Objects.requireNonNull(directory);
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * starts a delta against what was saved for the feed of the Material
+     */
+    Delta begin(Material material) throws MaterialstoreException {
+        Path file = directory.resolve(feedIdOf(material) + ".idx");
+        String base = null;
+        Map<Long, Long> previous = new HashMap<>();
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line = reader.readLine();
+                if (line != null && line.startsWith(BASE_PREFIX)) {
+                    base = line.substring(BASE_PREFIX.length());
+                }
+                while ((line = reader.readLine()) != null) {
+                    int sp = line.indexOf(' ');
+                    if (sp > 0) {
+                        previous.put(Long.parseUnsignedLong(line.substring(0, sp), 16),
+                                Long.parseUnsignedLong(line.substring(sp + 1), 16));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // a broken index; everything is new
+                base = null;
+                previous.clear();
+            }
+        }
+        return new Delta(file, base, previous,
+                String.valueOf(material.getJobTimestamp()));
+    }
+
+    static String feedIdOf(Material material) {
+        Metadata metadata = material.getMetadata();
+        List<String> keys = new ArrayList<>(metadata.keySet());
+        Collections.sort(keys);
+        StringBuilder sb = new StringBuilder();
+        sb.append(material.getJobName()).append('\n');
+        for (String key : keys) {
+            sb.append(key).append('=').append(metadata.get(key)).append('\n');
+        }
+        return String.format("%016x", hash(FNV_OFFSET, sb));
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * FNV-1a over the chars
+     */
+    static long hash(long h, CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * the comparison of a feed being mapped against the saved index
+     */
+    static final class Delta {
+
+        private final Path file;
+        private final String base;
+        private final Map<Long, Long> previous;
+        private final Map<Long, Long> current;
+        private final String jobTimestamp;
+        private String entryKey;
+        private int emitted;
+
+        private Delta(Path file, String base, Map<Long, Long> previous,
+                      String jobTimestamp) {
+            this.file = file;
+            this.base = base;
+            this.previous = previous;
+            this.current = new HashMap<>();
+            this.jobTimestamp = jobTimestamp;
+            this.entryKey = null;
+            this.emitted = 0;
+        }
+
+        /**
+         * the key of the entry from which the following rows are made
+         */
+        void setEntry(FeedEntry entry) {
+            String key = entry.getId();
+            if (key == null) {
+                key = entry.getLink();
+            }
+            if (key == null) {
+                key = entry.getTitle();
+            }
+            entryKey = key;
+        }
+
+        /**
+         * @return a RowWriter which passes the new or changed rows only
+         */
+        Filter filter(List<AbstractFeedMapper.Column> columns,
+                      AbstractFeedMapper.RowWriter rows) {
+            return new Filter(this, columns, rows);
+        }
+
+        private void write(List<AbstractFeedMapper.Column> columns,
+                           AbstractFeedMapper.RowWriter rows,
+                           Map<String, String> row) throws MaterialstoreException {
+            long content = FNV_OFFSET;
+            for (AbstractFeedMapper.Column column : columns) {
+                String value = row.get(column.name());
+                content = hash(content, (value != null) ? value : "");
+                content = hash(content, "\u0000");
+            }
+            String key = entryKey;
+            if (key == null) {
+                // rows not made by readEntries(); keyed by the first column
+                key = columns.isEmpty() ? "" : String.valueOf(row.get(columns.get(0).name()));
+            }
+            long keyHash = hash(FNV_OFFSET, key);
+            // several rows of an entry are told apart by their content
+            while (current.containsKey(keyHash)) {
+                keyHash = keyHash * FNV_PRIME + 1;
+            }
+            current.put(keyHash, content);
+            Long before = previous.get(keyHash);
+            if (before == null || before != content) {
+                emitted++;
+                rows.write(row);
+            }
+        }
+
+        /**
+         * @return the JobTimestamp of the previous mapping, or null if this is the first
+         */
+        String getBase() {
+            return base;
+        }
+
+        int getEmitted() {
+            return emitted;
+        }
+
+        int getTotal() {
+            return current.size();
+        }
+
+        /**
+         * adds "delta" and, if there was a previous mapping, "delta_base"
+         */
+        Metadata tag(Metadata metadata) {
+            if (base == null) {
+                return Metadata.builder(metadata)
+                        .put("delta", "false")
+                        .build();
+            }
+            return Metadata.builder(metadata)
+                    .put("delta", "true")
+                    .put("delta_base", base)
+                    .build();
+        }
+
+        /**
+         * saves the entries of this mapping as the base of the next one;
+         * call after the delta has been emitted
+         */
+        void commit() throws MaterialstoreException {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(BASE_PREFIX + jobTimestamp);
+                writer.newLine();
+                for (Map.Entry<Long, Long> e : current.entrySet()) {
+                    writer.write(Long.toHexString(e.getKey()));
+                    writer.write(' ');
+                    writer.write(Long.toHexString(e.getValue()));
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+        }
+
+        /**
+         * the RowWriter of the Delta, by which readEntries() tells the Delta
+         * the entry from which the following rows are made
+         */
+        static final class Filter implements AbstractFeedMapper.RowWriter {
+
+            private final Delta delta;
+            private final List<AbstractFeedMapper.Column> columns;
+            private final AbstractFeedMapper.RowWriter rows;
+
+            private Filter(Delta delta, List<AbstractFeedMapper.Column> columns,
+                           AbstractFeedMapper.RowWriter rows) {
+                this.delta = delta;
+                this.columns = columns;
+                this.rows = rows;
+            }
+
+            Delta getDelta() {
+                return delta;
+            }
+
+            @Override
+            public void write(Map<String, String> row) throws MaterialstoreException {
+                delta.write(columns, rows, row);
+            }
+        }
+    }
+}
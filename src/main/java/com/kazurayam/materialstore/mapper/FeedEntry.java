@@ -0,0 +1,80 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An item of an RSS feed or an entry of an Atom feed, as read by
+ * StreamingFeedReader: the text of each child element, keyed by its name.
+ * A namespaced element is keyed by its prefix and local name, e.g. "dc:creator".
+ * The text of a repeated element (e.g. "category") is joined with ", ".
+ * For the Atom &lt;link&gt; the href of the alternate link is taken.
+ */
+public final class FeedEntry {
+
+    private final Map<String, String> elements;
+
+    FeedEntry(Map<String, String> elements) {
+        this.elements = Collections.unmodifiableMap(new LinkedHashMap<>(elements));
+    }
+
+    /**
+     * @return the text of the child element, or null if absent
+     */
+    public String get(String name) {
+        return elements.get(name);
+    }
+
+    public Map<String, String> getElements() {
+        return elements;
+    }
+
+    public String getTitle() {
+        return elements.get("title");
+    }
+
+    public String getLink() {
+        return elements.get("link");
+    }
+
+    /**
+     * @return RSS description, or Atom summary or content
+     */
+    public String getDescription() {
+        return first("description", "summary", "content");
+    }
+
+    /**
+     * @return RSS pubDate or dc:date, or Atom published or updated, as written in the feed
+     */
+    public String getPublished() {
+        return first("pubDate", "dc:date", "published", "updated");
+    }
+
+    /**
+     * @return RSS guid, or Atom id
+     */
+    public String getId() {
+        return first("guid", "id");
+    }
+
+    public String getAuthor() {
+        return first("author", "dc:creator");
+    }
+
+    private String first(String... names) {
+        for (String name : names) {
+            String value = elements.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return elements.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.kazurayam.materialstore.mapper;
+
+/**
+ * What Excel2CSVMapperPOI3 writes into the CSV for a cell with a formula
+ */
+public enum FormulaMode {
+
+    /**
+     * the formula itself, e.g. "SUM(A1:A9)"
+     */
+    FORMULA_TEXT,
+
+    /**
+     * the result which Excel cached in the sheet XML when the workbook was
+     * saved; as cheap as reading a plain cell. An empty string if the
+     * workbook has no cached result for the cell
+     */
+    CACHED_VALUE,
+
+    /**
+     * the cached result as CACHED_VALUE, and for the cells without one,
+     * the result of evaluating the formula with a FormulaEvaluator made
+     * once per workbook. Evaluation needs the whole workbook, so this
+     * works as CACHED_VALUE in the streaming mode
+     */
+    EVALUATE
+}
@@ -0,0 +1,118 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A MapperMetrics which keeps the measurements in memory, per Mapper class:
+ * a LatencyHistogram of nanoseconds for each Phase, the total input and
+ * output bytes, and a histogram of the units (pages, sheets, ...) per
+ * Material.
+ *
+ * <pre>
+ * HistogramMapperMetrics metrics = new HistogramMapperMetrics();
+ * Mapper mapper = new InstrumentedMapper(new PDF2ImageMapper(), metrics);
+ * ...
+ * System.out.println(metrics.report());
+ * </pre>
+ */
+public final class HistogramMapperMetrics implements MapperMetrics {
+
+    private final Map<Class<?>, Stats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordPhase(Class<?> mapper, Phase phase, long nanos) {
+        statsOf(mapper).phases[phase.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordInputBytes(Class<?> mapper, long bytes) {
+        statsOf(mapper).inputBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void recordOutputBytes(Class<?> mapper, long bytes) {
+        statsOf(mapper).outputBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void recordUnits(Class<?> mapper, String unit, long count) {
+        statsOf(mapper).units
+                .computeIfAbsent(unit, u -> new LatencyHistogram())
+                .record(count);
+    }
+
+    public Set<Class<?>> getMappers() {
+        return stats.keySet();
+    }
+
+    public LatencyHistogram getPhase(Class<?> mapper, Phase phase) {
+        return statsOf(mapper).phases[phase.ordinal()];
+    }
+
+    public long getInputBytes(Class<?> mapper) {
+        return statsOf(mapper).inputBytes.get();
+    }
+
+    public long getOutputBytes(Class<?> mapper) {
+        return statsOf(mapper).outputBytes.get();
+    }
+
+    /**
+     * @return the histogram of the number of units per Material, empty if none recorded
+     */
+    public LatencyHistogram getUnits(Class<?> mapper, String unit) {
+        LatencyHistogram histogram = statsOf(mapper).units.get(unit);
+        return (histogram != null) ? histogram : new LatencyHistogram();
+    }
+
+    /**
+     * @return a human-readable summary of all the measurements, one line per item
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Class<?>, Stats> e : stats.entrySet()) {
+            String name = e.getKey().getSimpleName();
+            Stats s = e.getValue();
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram h = s.phases[phase.ordinal()];
+                if (h.getCount() > 0) {
+                    sb.append(name).append(' ').append(phase).append(" ns: ")
+                            .append(h).append('\n');
+                }
+            }
+            sb.append(name).append(" bytes: in=").append(s.inputBytes.get())
+                    .append(" out=").append(s.outputBytes.get()).append('\n');
+            for (Map.Entry<String, LatencyHistogram> u : s.units.entrySet()) {
+                sb.append(name).append(' ').append(u.getKey()).append(": ")
+                        .append(u.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private Stats statsOf(Class<?> mapper) {
+        Stats s = stats.get(mapper);
+        return (s != null) ? s : stats.computeIfAbsent(mapper, m -> new Stats());
+    }
+
+    private static final class Stats {
+        private final LatencyHistogram[] phases;
+        private final AtomicLong inputBytes = new AtomicLong();
+        private final AtomicLong outputBytes = new AtomicLong();
+        private final Map<String, LatencyHistogram> units = new ConcurrentHashMap<>();
+        Stats() {
+            phases = new LatencyHistogram[Phase.values().length];
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Encodes a rendered BufferedImage into the bytes of an image file.
+ *
+ * Implementations must be thread-safe, as PDF2ImageMapper may call
+ * encode() from several threads at once.
+ *
+ * @see ImageIOEncoder
+ * @see PngEncoder
+ */
+public interface ImageEncoder {
+
+    /**
+     * @param image the image to encode
+     * @param dpi the resolution to record in the image file, if the format
+     *            can hold it
+     */
+    byte[] encode(BufferedImage image, int dpi) throws IOException;
+
+    /**
+     * @return the informal name of the format, such as "png"
+     */
+    String getFormatName();
+
+    FileType getFileType();
+}
@@ -0,0 +1,37 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+
+/**
+ * Image formats that PDF2ImageMapper can write with the ImageIO writers
+ * bundled in the JDK.
+ *
+ * PNG and BMP are lossless. JPEG is lossy but much smaller. Only PNG can
+ * hold an alpha channel; RenderProfile rejects JPEG and BMP with
+ * ImageType.ARGB, for which the ImageIO writers write nothing.
+ */
+public enum ImageFormat {
+
+    PNG("png", FileType.PNG),
+    JPEG("jpg", FileType.JPEG),
+    BMP("bmp", FileType.BMP);
+
+    private final String formatName;
+    private final FileType fileType;
+
+    ImageFormat(String formatName, FileType fileType) {
+        this.formatName = formatName;
+        this.fileType = fileType;
+    }
+
+    /**
+     * @return the informal format name understood by ImageIO
+     */
+    public String getFormatName() {
+        return formatName;
+    }
+
+    public FileType getFileType() {
+        return fileType;
+    }
+}
@@ -0,0 +1,45 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import org.apache.pdfbox.tools.imageio.ImageIOUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Encodes images with the ImageIO writers through PDFBox's ImageIOUtil,
+ * with the default settings of the writers. This is what PDF2ImageMapper
+ * uses unless another ImageEncoder is given.
+ */
+public final class ImageIOEncoder implements ImageEncoder {
+
+    private final ImageFormat imageFormat;
+
+    public ImageIOEncoder(ImageFormat imageFormat) {
+        Objects.requireNonNull(imageFormat);
+        this.imageFormat = imageFormat;
+    }
+
+    @Override
+    public byte[] encode(BufferedImage image, int dpi) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (!ImageIOUtil.writeImage(image, imageFormat.getFormatName(), baos, dpi)) {
+            // no ImageIO writer takes the image, e.g. JPEG or BMP with alpha
+            throw new IOException("no ImageIO writer can write an image of type "
+                    + image.getType() + " as " + imageFormat.getFormatName());
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public String getFormatName() {
+        return imageFormat.getFormatName();
+    }
+
+    @Override
+    public FileType getFileType() {
+        return imageFormat.getFileType();
+    }
+}
@@ -0,0 +1,14 @@
+package com.kazurayam.materialstore.mapper;
+
+/**
+ * A Mapper which reports the phases of its work to a MapperMetrics.
+ * InstrumentedMapper passes its MapperMetrics to a delegate which
+ * implements this.
+ */
+public interface Instrumentable {
+
+    /**
+     * @param metrics MapperMetrics.NOOP to stop reporting
+     */
+    void setMetrics(MapperMetrics metrics);
+}
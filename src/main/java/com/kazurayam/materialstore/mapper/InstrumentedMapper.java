@@ -0,0 +1,92 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.map.Mapper;
+import com.kazurayam.materialstore.map.MappingListener;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * A Mapper that wraps any other Mapper and reports to a MapperMetrics
+ * the time of the whole map() call (Phase.TOTAL), the time spent in the
+ * MappingListener (Phase.EMIT), and the input and output bytes.
+ *
+ * If the wrapped Mapper is Instrumentable, the MapperMetrics is passed to
+ * it as well so that it reports its own READ, PARSE and ENCODE phases
+ * and the number of pages or sheets.
+ */
+public final class InstrumentedMapper implements Mapper {
+
+    private final Mapper delegate;
+    private final MapperMetrics metrics;
+    private final Class<?> mapperClass;
+    private Store store;
+    private MappingListener listener;
+
+    public InstrumentedMapper(Mapper delegate, MapperMetrics metrics) {
+        Objects.requireNonNull(delegate);
+        Objects.requireNonNull(metrics);
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.mapperClass = delegate.getClass();
+        this.store = null;
+        this.listener = null;
+        if (delegate instanceof Instrumentable) {
+            ((Instrumentable) delegate).setMetrics(metrics);
+        }
+        delegate.setMappingListener(new TimingListener());
+    }
+
+    @Override
+    public void setStore(Store store) {
+        Objects.requireNonNull(store);
+        this.store = store;
+        delegate.setStore(store);
+    }
+
+    @Override
+    public void setMappingListener(MappingListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void map(Material material) throws MaterialstoreException {
+        Objects.requireNonNull(material);
+        assert store != null;
+        assert listener != null;
+        //
+        long start = System.nanoTime();
+        try {
+            delegate.map(material);
+        } finally {
+            metrics.recordPhase(mapperClass, MapperMetrics.Phase.TOTAL,
+                    System.nanoTime() - start);
+        }
+        if (metrics.isEnabled()) {
+            File file = MaterialFiles.toFile(material);
+            if (file != null) {
+                metrics.recordInputBytes(mapperClass, file.length());
+            }
+        }
+    }
+
+    private final class TimingListener implements MappingListener {
+        @Override
+        public void onMapped(byte[] data, FileType fileType, Metadata metadata)
+                throws MaterialstoreException {
+            long start = System.nanoTime();
+            try {
+                listener.onMapped(data, fileType, metadata);
+            } finally {
+                metrics.recordPhase(mapperClass, MapperMetrics.Phase.EMIT,
+                        System.nanoTime() - start);
+                metrics.recordOutputBytes(mapperClass, data.length);
+            }
+        }
+    }
+}
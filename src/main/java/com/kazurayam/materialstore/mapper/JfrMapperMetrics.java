@@ -0,0 +1,112 @@
+package com.kazurayam.materialstore.mapper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Objects;
+
+/**
+ * A MapperMetrics which emits the measurements as JDK Flight Recorder events,
+ * and passes them on to another MapperMetrics.
+ * The events are committed only while a recording with them enabled is
+ * running, e.g. <code>java -XX:StartFlightRecording ...</code>
+ *
+ * Requires the jdk.jfr API: JDK 11 or later, or JDK 8u262 or later.
+ */
+public final class JfrMapperMetrics implements MapperMetrics {
+
+    private final MapperMetrics delegate;
+
+    public JfrMapperMetrics() {
+        this(NOOP);
+    }
+
+    public JfrMapperMetrics(MapperMetrics delegate) {
+        Objects.requireNonNull(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void recordPhase(Class<?> mapper, Phase phase, long nanos) {
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled()) {
+            event.mapper = mapper.getName();
+            event.phase = phase.name();
+            event.nanos = nanos;
+            event.commit();
+        }
+        delegate.recordPhase(mapper, phase, nanos);
+    }
+
+    @Override
+    public void recordInputBytes(Class<?> mapper, long bytes) {
+        BytesEvent event = new BytesEvent();
+        if (event.isEnabled()) {
+            event.mapper = mapper.getName();
+            event.direction = "input";
+            event.bytes = bytes;
+            event.commit();
+        }
+        delegate.recordInputBytes(mapper, bytes);
+    }
+
+    @Override
+    public void recordOutputBytes(Class<?> mapper, long bytes) {
+        BytesEvent event = new BytesEvent();
+        if (event.isEnabled()) {
+            event.mapper = mapper.getName();
+            event.direction = "output";
+            event.bytes = bytes;
+            event.commit();
+        }
+        delegate.recordOutputBytes(mapper, bytes);
+    }
+
+    @Override
+    public void recordUnits(Class<?> mapper, String unit, long count) {
+        delegate.recordUnits(mapper, unit, count);
+    }
+
+    @Name("com.kazurayam.materialstore.mapper.Phase")
+    @Label("Mapper Phase")
+    @Description("Time spent in a phase of Mapper#map")
+    @Category({"Materialstore", "Mapper"})
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Mapper")
+        String mapper;
+        @Label("Phase")
+        String phase;
+        // not "duration", which every Event has already, for the time
+        // between begin() and end()
+        @Label("Nanos")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("com.kazurayam.materialstore.mapper.Bytes")
+    @Label("Mapper Bytes")
+    @Description("Bytes read or written by Mapper#map")
+    @Category({"Materialstore", "Mapper"})
+    @StackTrace(false)
+    static final class BytesEvent extends Event {
+        @Label("Mapper")
+        String mapper;
+        @Label("Direction")
+        String direction;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
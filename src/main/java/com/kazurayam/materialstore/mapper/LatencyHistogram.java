@@ -0,0 +1,85 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, typically nanoseconds.
+ * Bucket i counts the values in [2^(i-1), 2^i), so a percentile is
+ * accurate to a factor of 2, which is enough to tell milliseconds
+ * from seconds at a fixed, small footprint.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        long v = Math.max(0, value);
+        buckets.incrementAndGet(bucketOf(v));
+        count.incrementAndGet();
+        total.addAndGet(v);
+        long m;
+        while (v > (m = max.get())) {
+            if (max.compareAndSet(m, v)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return (c == 0) ? 0.0 : (double) total.get() / c;
+    }
+
+    /**
+     * @param percentile 0.0 to 100.0
+     * @return the upper bound of the bucket in which the percentile falls,
+     * capped by the max value recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("percentile must be 0 to 100: " + percentile);
+        }
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(c * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(rank, 1)) {
+                long upper = (i == 0) ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int bucketOf(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.0f p50=%d p99=%d max=%d",
+                getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+    }
+}
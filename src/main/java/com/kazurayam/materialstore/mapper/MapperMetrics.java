@@ -0,0 +1,67 @@
+package com.kazurayam.materialstore.mapper;
+
+/**
+ * Receives measurements from the mappers: the time spent in each phase of
+ * a mapping, the bytes read and written, and the number of pages or sheets
+ * processed per Material.
+ *
+ * Implementations must be thread-safe, as the mappers may report from
+ * several worker threads at once. The arguments are primitives, enums and
+ * constants so that reporting to NOOP allocates nothing.
+ *
+ * @see InstrumentedMapper
+ * @see HistogramMapperMetrics
+ * @see JfrMapperMetrics
+ */
+public interface MapperMetrics {
+
+    enum Phase {
+        /** opening or reading the input Material */
+        READ,
+        /** parsing the input with POI, PDFBox or ROME, or rendering a page */
+        PARSE,
+        /** encoding the output: CSV, PNG, XLSX, ... */
+        ENCODE,
+        /** inside MappingListener#onMapped */
+        EMIT,
+        /** the whole Mapper#map call */
+        TOTAL
+    }
+
+    String UNIT_PAGES = "pages";
+    String UNIT_SHEETS = "sheets";
+    String UNIT_ENTRIES = "entries";
+
+    MapperMetrics NOOP = new MapperMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+        @Override
+        public void recordPhase(Class<?> mapper, Phase phase, long nanos) {}
+        @Override
+        public void recordInputBytes(Class<?> mapper, long bytes) {}
+        @Override
+        public void recordOutputBytes(Class<?> mapper, long bytes) {}
+        @Override
+        public void recordUnits(Class<?> mapper, String unit, long count) {}
+    };
+
+    /**
+     * @return false if the measurements are discarded, so that the callers
+     * can skip the work needed only to take them
+     */
+    boolean isEnabled();
+
+    void recordPhase(Class<?> mapper, Phase phase, long nanos);
+
+    void recordInputBytes(Class<?> mapper, long bytes);
+
+    void recordOutputBytes(Class<?> mapper, long bytes);
+
+    /**
+     * @param unit UNIT_PAGES, UNIT_SHEETS or UNIT_ENTRIES
+     * @param count the number of the units processed in a Material
+     */
+    void recordUnits(Class<?> mapper, String unit, long count);
+}
@@ -0,0 +1,380 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.google.gson.Gson;
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded, persistent cache of the outputs of Mappers,
+ * used by CachingMapper.
+ *
+ * Each entry is a directory named by its key, which holds the output files
+ * and a manifest of their FileType and metadata. The file "index.json" in
+ * the cache directory lists the entries with their size and the time of
+ * last access, so that the cache survives restarts. When the total size
+ * exceeds the limit, the least recently used entries are evicted.
+ * A hit updates the time of last access in memory only; it is persisted
+ * with the next change of the index, or by flush().
+ *
+ * On startup, the directories the index does not list are deleted: the
+ * entries left behind by a lost index or by a crash before the index was
+ * saved, and the staging directories of mappings that never committed.
+ *
+ * An instance is thread-safe and can be shared by several CachingMappers.
+ * Two instances must not use the same directory at once.
+ */
+public final class MappingResultCache {
+
+    private static final String INDEX_FILE = "index.json";
+    private static final String MANIFEST_FILE = "manifest.json";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Gson gson;
+    // key -> entry, in the order of access, the least recently used first
+    private final LinkedHashMap<String, IndexEntry> entries;
+    private long totalBytes;
+    private boolean accessUnsaved;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * @param directory where the cache is persisted; created if missing
+     * @param maxBytes upper bound of the total size of the cached outputs
+     */
+    public MappingResultCache(Path directory, long maxBytes)
+            throws MaterialstoreException {
+        Objects.requireNonNull(directory);
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.gson = new Gson();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.totalBytes = 0;
+        this.accessUnsaved = false;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        try {
+            Files.createDirectories(directory);
+            loadIndex();
+            deleteOrphans();
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * persists the times of last access updated by the hits since the
+     * index was last saved
+     */
+    public synchronized void flush() throws MaterialstoreException {
+        if (!accessUnsaved) {
+            return;
+        }
+        try {
+            saveIndex();
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * @return the cached outputs in the order they were produced,
+     * or null if the key is not cached
+     */
+    synchronized List<CachedOutput> get(String key) throws MaterialstoreException {
+        IndexEntry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Path entryDir = directory.resolve(key);
+        try {
+            Manifest manifest;
+            try (Reader reader = Files.newBufferedReader(
+                    entryDir.resolve(MANIFEST_FILE), StandardCharsets.UTF_8)) {
+                manifest = gson.fromJson(reader, Manifest.class);
+            }
+            List<CachedOutput> outputs = new ArrayList<>();
+            for (ManifestItem item : manifest.items) {
+                byte[] data = Files.readAllBytes(entryDir.resolve(item.file));
+                outputs.add(new CachedOutput(data,
+                        FileType.valueOf(item.fileType), item.metadata));
+            }
+            entry.lastAccess = System.currentTimeMillis();
+            accessUnsaved = true;
+            hits.incrementAndGet();
+            return outputs;
+        } catch (IOException | RuntimeException e) {
+            // a damaged entry is dropped and reported as a miss
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Starts to record the outputs for the key. The outputs are written into
+     * a staging directory as they come, and become visible on commit().
+     */
+    Recorder record(String key) throws MaterialstoreException {
+        return new Recorder(key);
+    }
+
+    private synchronized void put(String key, Path stagingDir, long size)
+            throws IOException {
+        Path entryDir = directory.resolve(key);
+        if (entries.containsKey(key)) {
+            remove(key);
+        }
+        if (size > maxBytes) {
+            deleteRecursively(stagingDir);
+            return;
+        }
+        // an orphan of the same key would make the move fail
+        deleteRecursively(entryDir);
+        Files.move(stagingDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+        IndexEntry entry = new IndexEntry();
+        entry.key = key;
+        entry.size = size;
+        entry.lastAccess = System.currentTimeMillis();
+        entries.put(key, entry);
+        totalBytes += size;
+        evict();
+        saveIndex();
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, IndexEntry>> iter = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iter.hasNext()) {
+            IndexEntry eldest = iter.next().getValue();
+            iter.remove();
+            totalBytes -= eldest.size;
+            deleteRecursively(directory.resolve(eldest.key));
+        }
+    }
+
+    private void remove(String key) {
+        IndexEntry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.size;
+        }
+        try {
+            deleteRecursively(directory.resolve(key));
+            saveIndex();
+        } catch (IOException e) {
+            // will be retried on the next put
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        Index index;
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            index = gson.fromJson(reader, Index.class);
+        } catch (RuntimeException e) {
+            // a broken index; start afresh
+            return;
+        }
+        if (index == null || index.entries == null) {
+            return;
+        }
+        IndexEntry[] sorted = index.entries.toArray(new IndexEntry[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+        for (IndexEntry entry : sorted) {
+            if (Files.isDirectory(directory.resolve(entry.key))) {
+                entries.put(entry.key, entry);
+                totalBytes += entry.size;
+            }
+        }
+    }
+
+    private void deleteOrphans() throws IOException {
+        List<Path> orphans = new ArrayList<>();
+        try (DirectoryStream<Path> children =
+                     Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path child : children) {
+                if (!entries.containsKey(child.getFileName().toString())) {
+                    orphans.add(child);
+                }
+            }
+        }
+        for (Path orphan : orphans) {
+            try {
+                deleteRecursively(orphan);
+            } catch (IOException e) {
+                // will be retried on the next start
+            }
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        Index index = new Index();
+        index.entries = new ArrayList<>(entries.values());
+        Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(index, writer);
+        }
+        Files.move(tmp, directory.resolve(INDEX_FILE),
+                StandardCopyOption.REPLACE_EXISTING);
+        accessUnsaved = false;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+
+    /**
+     * writes the outputs of a single mapping into a staging directory
+     */
+    final class Recorder {
+        private final String key;
+        private final Path stagingDir;
+        private final Manifest manifest;
+        private long size;
+
+        private Recorder(String key) throws MaterialstoreException {
+            this.key = key;
+            this.stagingDir = directory.resolve("staging-" + UUID.randomUUID());
+            this.manifest = new Manifest();
+            this.manifest.items = new ArrayList<>();
+            this.size = 0;
+            try {
+                Files.createDirectories(stagingDir);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+        }
+
+        void add(byte[] data, FileType fileType, Map<String, String> metadata)
+                throws MaterialstoreException {
+            ManifestItem item = new ManifestItem();
+            item.file = Integer.toString(manifest.items.size());
+            item.fileType = fileType.name();
+            item.metadata = metadata;
+            try {
+                Files.write(stagingDir.resolve(item.file), data);
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+            manifest.items.add(item);
+            size += data.length;
+        }
+
+        void commit() throws MaterialstoreException {
+            try {
+                try (Writer writer = Files.newBufferedWriter(
+                        stagingDir.resolve(MANIFEST_FILE), StandardCharsets.UTF_8)) {
+                    gson.toJson(manifest, writer);
+                }
+                put(key, stagingDir, size);
+            } catch (IOException e) {
+                abort();
+                throw new MaterialstoreException(e);
+            }
+        }
+
+        void abort() {
+            try {
+                deleteRecursively(stagingDir);
+            } catch (IOException e) {
+                // leftovers of staging are harmless
+            }
+        }
+    }
+
+    static final class CachedOutput {
+        private final byte[] data;
+        private final FileType fileType;
+        private final Map<String, String> metadata;
+        CachedOutput(byte[] data, FileType fileType, Map<String, String> metadata) {
+            this.data = data;
+            this.fileType = fileType;
+            this.metadata = metadata;
+        }
+        byte[] getData() {
+            return data;
+        }
+        FileType getFileType() {
+            return fileType;
+        }
+        /**
+         * @return the metadata added by the mapper on top of the metadata
+         * of the input Material
+         */
+        Map<String, String> getMetadata() {
+            return metadata;
+        }
+    }
+
+    // the JSON structures persisted by Gson
+
+    private static final class Index {
+        private List<IndexEntry> entries;
+    }
+
+    private static final class IndexEntry {
+        private String key;
+        private long size;
+        private long lastAccess;
+    }
+
+    private static final class Manifest {
+        private List<ManifestItem> items;
+    }
+
+    private static final class ManifestItem {
+        private String file;
+        private String fileType;
+        private Map<String, String> metadata;
+    }
+}
@@ -0,0 +1,114 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Opens the content of a Material for the mappers.
+ *
+ * If the Material is stored as a file on the local filesystem, POI and PDFBox
+ * are given the file itself, so that they read it on demand instead of us
+ * copying the whole content into a byte[] by Store#read(Material) first.
+ * Otherwise falls back to Store#read(Material).
+ */
+final class MaterialFiles {
+
+    // false only while a test maps through Store#read(Material), to compare
+    // the output with that of the file
+    private static volatile boolean filesEnabled = true;
+
+    private MaterialFiles() {}
+
+    static void setFilesEnabled(boolean enabled) {
+        filesEnabled = enabled;
+    }
+
+    /**
+     * @return the file in the store that holds the content of the Material,
+     * or null if the Material is not backed by a local file
+     */
+    static File toFile(Material material) {
+        if (!filesEnabled) {
+            return null;
+        }
+        try {
+            URL url = material.toURL();
+            if (url == null || !"file".equals(url.getProtocol())) {
+                return null;
+            }
+            File file = Paths.get(url.toURI()).toFile();
+            return file.isFile() ? file : null;
+        } catch (Exception e) {
+            // not resolvable to a local file; the caller will use Store#read()
+            return null;
+        }
+    }
+
+    /**
+     * The caller is responsible to close the InputStream.
+     */
+    static InputStream openStream(Store store, Material material)
+            throws MaterialstoreException {
+        File file = toFile(material);
+        try {
+            if (file != null) {
+                return Files.newInputStream(file.toPath());
+            } else {
+                return new ByteArrayInputStream(store.read(material));
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * The caller is responsible to call OPCPackage#revert() when done.
+     */
+    static OPCPackage openPackage(Store store, Material material)
+            throws MaterialstoreException {
+        File file = toFile(material);
+        try {
+            if (file != null) {
+                return OPCPackage.open(file, PackageAccess.READ);
+            } else {
+                byte[] data = store.read(material);
+                return OPCPackage.open(new ByteArrayInputStream(data));
+            }
+        } catch (InvalidFormatException | IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * The caller is responsible to close the PDDocument.
+     */
+    static PDDocument loadPDF(Store store, Material material,
+                              MemoryUsageSetting memUsageSetting)
+            throws MaterialstoreException {
+        File file = toFile(material);
+        try {
+            if (file != null) {
+                return PDDocument.load(file, memUsageSetting);
+            } else {
+                return PDDocument.load(store.read(material), "", null, null,
+                        memUsageSetting);
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+}
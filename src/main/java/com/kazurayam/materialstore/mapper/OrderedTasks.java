@@ -0,0 +1,144 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility to run tasks concurrently while handing their results over
+ * in the order the tasks were submitted.
+ *
+ * The tasks are submitted lazily by the Iterator; no more than
+ * <code>window</code> tasks are submitted but not yet handed over at
+ * any time, so the number of results held in memory is bounded.
+ */
+final class OrderedTasks {
+
+    interface ResultListener<T> {
+        void onResult(T result) throws MaterialstoreException;
+    }
+
+    private OrderedTasks() {}
+
+    /**
+     * @param submissions each call to next() submits a task and returns its Future
+     * @param window max number of tasks in flight, must be 1 or more
+     * @param resultListener receives the results in the order of submission,
+     *                       on the calling thread
+     */
+    static <T> void emitInOrder(Iterator<? extends Future<T>> submissions,
+                                int window,
+                                ResultListener<T> resultListener)
+            throws MaterialstoreException {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be 1 or more: " + window);
+        }
+        Deque<Future<T>> inFlight = new ArrayDeque<>();
+        try {
+            while (submissions.hasNext()) {
+                if (inFlight.size() >= window) {
+                    resultListener.onResult(await(inFlight.removeFirst()));
+                }
+                inFlight.addLast(submissions.next());
+            }
+            while (!inFlight.isEmpty()) {
+                resultListener.onResult(await(inFlight.removeFirst()));
+            }
+        } finally {
+            // reached with a non-empty queue only when a task failed
+            for (Future<T> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    static <T> T await(Future<T> future) throws MaterialstoreException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MaterialstoreException) {
+                throw (MaterialstoreException) cause;
+            }
+            throw new MaterialstoreException(cause);
+        }
+    }
+
+    /**
+     * Stops the executor and waits for the running tasks to finish, so that
+     * the resources they use can be released safely afterwards.
+     */
+    static void shutdown(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Keeps count of the tasks running on an executor which cannot be shut
+     * down, as one given by the caller, so that the resources the tasks use
+     * can be released safely once they are done. emitInOrder() cancels the
+     * tasks in flight when one fails, but a cancelled task that has started
+     * keeps running until it notices.
+     */
+    static final class Tracker {
+
+        private int running = 0;
+        private boolean closed = false;
+
+        /**
+         * @return the task, to be submitted instead; it does nothing if it
+         * starts after close()
+         */
+        <T> Callable<T> track(Callable<T> task) {
+            return () -> {
+                synchronized (this) {
+                    if (closed) {
+                        throw new CancellationException("the tasks are closed");
+                    }
+                    running++;
+                }
+                try {
+                    return task.call();
+                } finally {
+                    synchronized (this) {
+                        running--;
+                        notifyAll();
+                    }
+                }
+            };
+        }
+
+        /**
+         * lets no more task start, and waits for the running ones to finish
+         */
+        synchronized void close() {
+            closed = true;
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -3,24 +3,68 @@ package com.kazurayam.materialstore.mapper;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.map.Mapper;
 import com.kazurayam.materialstore.map.MappingListener;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.fit.pdfdom.PDFDomTree;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public final class PDF2HTMLMapper implements Mapper {
+public final class PDF2HTMLMapper implements Mapper, Instrumentable {
 
     private Store store;
     private MappingListener listener;
+    private long mainMemoryBudget = -1;
+    private Path tempDirectory = null;
+    private boolean perPage = false;
+    private int workers = 1;
+    private MapperMetrics metrics = MapperMetrics.NOOP;
+
+    /**
+     * Bounds the heap PDFBox uses for the scratch data of the PDF: up to
+     * <code>bytes</code> is kept in memory and the rest spills to a
+     * temporary file. In the per-page mode the budget is divided among the
+     * workers, each of which loads a PDDocument of its own.
+     * The budget does not bound the rest of the peak: PDFDomTree builds
+     * the DOM of the pages being converted (of the whole PDF, unless in
+     * the per-page mode), and the HTML is handed to the MappingListener as
+     * a byte[], so the output of each page or PDF is held in memory once
+     * or twice while it is written.
+     * By default everything is held in memory.
+     *
+     * @param bytes the budget in bytes, or -1 for unlimited
+     */
+    public void setMainMemoryBudget(long bytes) {
+        if (bytes < -1) {
+            throw new IllegalArgumentException("bytes must be -1 or more: " + bytes);
+        }
+        this.mainMemoryBudget = bytes;
+    }
+
+    /**
+     * @param tempDirectory where to create the temporary files;
+     *                      null for the system default
+     */
+    public void setTempDirectory(Path tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
 
     @Override
     public void setStore(Store store) {
@@ -33,6 +77,35 @@ public final class PDF2HTMLMapper implements Mapper {
         this.listener = listener;
     }
 
+    /**
+     * If true, each page of the PDF is converted into an HTML document of
+     * its own, with the "page" metadata (1, 2, 3, ...) as PDF2ImageMapper does.
+     * Default: false, the whole PDF is converted into a single HTML
+     */
+    public void setPerPage(boolean perPage) {
+        this.perPage = perPage;
+    }
+
+    /**
+     * In the per-page mode, if set 2 or more, pages are converted
+     * concurrently by this many workers, each of which loads a PDDocument
+     * of its own. The MappingListener is still notified in the order of pages.
+     * Default: 1
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException(
+                    "workers must be 1 or more: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    @Override
+    public void setMetrics(MapperMetrics metrics) {
+        Objects.requireNonNull(metrics);
+        this.metrics = metrics;
+    }
+
     @Override
     public void map(Material pdfMaterial) throws MaterialstoreException {
         Objects.requireNonNull(pdfMaterial);
@@ -40,21 +113,147 @@ public final class PDF2HTMLMapper implements Mapper {
         assert listener != null;
         assert pdfMaterial.getFileType() == FileType.PDF;
         //
-        byte[] data = store.read(pdfMaterial);
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        // do data format conversion
+        if (perPage) {
+            mapPerPage(pdfMaterial);
+            return;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            PDDocument pdf = PDDocument.load(bais);
-            Writer writer = new OutputStreamWriter(baos, StandardCharsets.UTF_8);
-            new PDFDomTree().writeText(pdf, writer);
-            writer.flush();
-            writer.close();
+            // do data format conversion
+            long start = System.nanoTime();
+            try (PDDocument pdf = MaterialFiles.loadPDF(store, pdfMaterial,
+                    memoryUsageSetting(1))) {
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                        System.nanoTime() - start);
+                metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES,
+                        pdf.getNumberOfPages());
+                start = System.nanoTime();
+                Writer writer = new BufferedWriter(
+                        new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                new PDFDomTree().writeText(pdf, writer);
+                writer.close();
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                        System.nanoTime() - start);
+            }
         } catch (IOException e) {
             throw new MaterialstoreException(e);
         }
         //
-        listener.onMapped(baos.toByteArray(), FileType.HTML,
-                pdfMaterial.getMetadata());
+        listener.onMapped(out.toByteArray(), FileType.HTML, pdfMaterial.getMetadata());
+    }
+
+    private void mapPerPage(Material pdfMaterial) throws MaterialstoreException {
+        // closed after the workers are stopped; a failure to close is added
+        // to the exception of the mapping, if any, as a suppressed one
+        try (PerThreadDocuments documents = new PerThreadDocuments(store,
+                pdfMaterial, memoryUsageSetting(workers))) {
+            ExecutorService converters =
+                    (workers > 1) ? Executors.newFixedThreadPool(workers) : null;
+            try {
+                long start = System.nanoTime();
+                if (converters == null) {
+                    PDDocument document = documents.get();
+                    int numberOfPages = document.getNumberOfPages();
+                    metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                            System.nanoTime() - start);
+                    metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES, numberOfPages);
+                    for (int page = 1; page <= numberOfPages; page++) {
+                        listener.onMapped(toHTML(document, page), FileType.HTML,
+                                metadataWithPage(pdfMaterial, page));
+                    }
+                    return;
+                }
+                int numberOfPages;
+                try (PDDocument document = documents.open()) {
+                    numberOfPages = document.getNumberOfPages();
+                }
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                        System.nanoTime() - start);
+                metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES, numberOfPages);
+                Iterator<Future<ConvertedPage>> submissions =
+                        new Iterator<Future<ConvertedPage>>() {
+                            private int page = 1;
+                            @Override
+                            public boolean hasNext() {
+                                return page <= numberOfPages;
+                            }
+                            @Override
+                            public Future<ConvertedPage> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int p = page++;
+                                return CompletableFuture.supplyAsync(
+                                        () -> convert(documents, p), converters);
+                            }
+                        };
+                OrderedTasks.emitInOrder(submissions, workers * 2,
+                        converted -> listener.onMapped(converted.data, FileType.HTML,
+                                metadataWithPage(pdfMaterial, converted.page)));
+            } finally {
+                if (converters != null) {
+                    OrderedTasks.shutdown(converters);
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    private ConvertedPage convert(PerThreadDocuments documents, int page) {
+        try {
+            return new ConvertedPage(page, toHTML(documents.get(), page));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param page 1-based
+     */
+    private byte[] toHTML(PDDocument document, int page) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PDFDomTree domTree = new PDFDomTree();
+        domTree.setStartPage(page);
+        domTree.setEndPage(page);
+        long start = System.nanoTime();
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        domTree.writeText(document, writer);
+        writer.close();
+        metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                System.nanoTime() - start);
+        return out.toByteArray();
+    }
+
+    private static Metadata metadataWithPage(Material pdfMaterial, int page) {
+        return Metadata.builder(pdfMaterial.getMetadata())
+                .put("page", Integer.toString(page))
+                .build();
+    }
+
+    /**
+     * @param documents how many PDDocuments are loaded at a time, to share
+     *                  the budget
+     */
+    private MemoryUsageSetting memoryUsageSetting(int documents) {
+        if (mainMemoryBudget < 0) {
+            return MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        MemoryUsageSetting setting =
+                MemoryUsageSetting.setupMixed(mainMemoryBudget / documents);
+        if (tempDirectory != null) {
+            setting.setTempDir(tempDirectory.toFile());
+        }
+        return setting;
+    }
+
+    private static final class ConvertedPage {
+        private final int page;
+        private final byte[] data;
+        ConvertedPage(int page, byte[] data) {
+            this.page = page;
+            this.data = data;
+        }
     }
 }
@@ -7,21 +7,54 @@ import com.kazurayam.materialstore.core.Metadata;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.map.Mapper;
 import com.kazurayam.materialstore.map.MappingListener;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.blend.BlendMode;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
-import org.apache.pdfbox.tools.imageio.ImageIOUtil;
+import org.apache.pdfbox.rendering.RenderDestination;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public final class PDF2ImageMapper implements Mapper {
+public final class PDF2ImageMapper implements Mapper, Instrumentable {
+
+    // never to tile, so that every page is rendered whole, as it always was
+    public static final long DEFAULT_TILING_THRESHOLD = -1;
+    public static final int DEFAULT_STRIP_HEIGHT = 512;
 
     private Store store = null;
     private MappingListener listener = null;
+    private int workers = 1;
+    private RenderProfile renderProfile = RenderProfile.DEFAULT;
+    private ImageEncoder imageEncoder = null;
+    private MapperMetrics metrics = MapperMetrics.NOOP;
+    private long tilingThreshold = DEFAULT_TILING_THRESHOLD;
+    private int stripHeight = DEFAULT_STRIP_HEIGHT;
+    private boolean perceptualHash = false;
+    private int thumbnailWidth = 0;
+
+    public PDF2ImageMapper() {}
+
+    public PDF2ImageMapper(RenderProfile renderProfile) {
+        setRenderProfile(renderProfile);
+    }
 
     @Override
     public void setStore(Store store) {
@@ -34,6 +67,122 @@ public final class PDF2ImageMapper implements Mapper {
         this.listener = listener;
     }
 
+    /**
+     * DPI, color model, image format and the pages to render.
+     * The pages not selected are not rasterized at all.
+     * Default: RenderProfile.DEFAULT, which is 300 DPI RGB PNG of all pages
+     */
+    public void setRenderProfile(RenderProfile renderProfile) {
+        Objects.requireNonNull(renderProfile);
+        this.renderProfile = renderProfile;
+    }
+
+    /**
+     * The encoder that turns rendered pages into image files, for example
+     * a PngEncoder tuned for speed or for size. If not set, an ImageIOEncoder
+     * for the ImageFormat of the RenderProfile is used.
+     */
+    public void setImageEncoder(ImageEncoder imageEncoder) {
+        this.imageEncoder = imageEncoder;
+    }
+
+    /**
+     * If set 2 or more, pages are rendered concurrently by this many workers,
+     * each of which loads a PDDocument of its own as PDFRenderer is not
+     * thread-safe. The rendered images are encoded by another pool of the
+     * same size, so rendering and encoding overlap.
+     * The MappingListener is still notified in the order of pages.
+     * Default: 1
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException(
+                    "workers must be 1 or more: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * A page with more pixels than this at the DPI of the RenderProfile is
+     * rendered in horizontal strips, each of which is streamed into a PNG
+     * by a PngEncoder, so that the whole page never exists as a
+     * BufferedImage. Applies to PNG only: if the ImageEncoder is not a
+     * PngEncoder, PngEncoder.balanced() writes the tiled pages; JPEG and BMP
+     * pages are always rendered whole.
+     *
+     * The strips are drawn as PDFRenderer.renderImage() draws a page, on a
+     * transparent canvas flattened onto white if the page has a blend mode,
+     * but the output is not guaranteed to be identical to the whole page:
+     * Java2D may anti-alias an edge, or sample a scaled image, differently
+     * at the seam of two strips, so a few pixels along the seams can differ.
+     * In the tests less than 0.1% of the pixels differ.
+     *
+     * Every strip replays the whole content stream of the page, clipped to
+     * the strip, so the CPU time of rendering grows with the number of
+     * strips; see setStripHeight(). A page of 14000 rows in strips of 512
+     * takes about 28 times the CPU time of rendering it whole.
+     *
+     * So tiling is off by default. Turn it on where a page would not fit in
+     * the heap otherwise: an A2 page at 300 DPI is about 35 million pixels,
+     * 140 MB as INT_RGB, so e.g. 32L * 1024 * 1024 tiles A2 and larger.
+     * Default: DEFAULT_TILING_THRESHOLD, -1 never to tile
+     */
+    public void setTilingThreshold(long pixels) {
+        if (pixels < -1) {
+            throw new IllegalArgumentException("pixels must be -1 or more: " + pixels);
+        }
+        this.tilingThreshold = pixels;
+    }
+
+    /**
+     * The number of rows rendered at a time in the tiled mode; the memory
+     * needed for a page is about the width times this times 4 bytes, twice
+     * that for a page with a blend mode, plus the PNG being written.
+     * A page of H rows is rendered H / rows times over, so a taller strip
+     * costs memory and saves CPU time.
+     * Default: DEFAULT_STRIP_HEIGHT
+     */
+    public void setStripHeight(int rows) {
+        if (rows < 1) {
+            throw new IllegalArgumentException("rows must be 1 or more: " + rows);
+        }
+        this.stripHeight = rows;
+    }
+
+    /**
+     * If true, the PerceptualHash of each page is computed from the image
+     * as rendered, before it is encoded, and attached as the "render_dhash"
+     * metadata. Tiled pages are hashed strip by strip.
+     * Default: false
+     */
+    public void setPerceptualHash(boolean perceptualHash) {
+        this.perceptualHash = perceptualHash;
+    }
+
+    /**
+     * If set 1 or more, a thumbnail of this many pixels wide is reduced
+     * from the image of each page as rendered, and is emitted with the same
+     * ImageEncoder right after the page, with the metadata of the page
+     * except that "page" is renamed "thumbnail_of_page", plus
+     * "render_thumbnail" (for example "128x165"); so a query for a "page"
+     * never matches a thumbnail. Every pixel of the
+     * thumbnail is the average of the pixels of the page it covers.
+     * A page narrower than this gives a thumbnail of its own size.
+     * Default: 0, no thumbnail
+     */
+    public void setThumbnailWidth(int pixels) {
+        if (pixels < 0) {
+            throw new IllegalArgumentException("pixels must be 0 or more: " + pixels);
+        }
+        this.thumbnailWidth = pixels;
+    }
+
+    @Override
+    public void setMetrics(MapperMetrics metrics) {
+        Objects.requireNonNull(metrics);
+        this.metrics = metrics;
+    }
+
     /**
      * https://www.baeldung.com/pdf-conversions-java
      */
@@ -44,27 +193,421 @@ public final class PDF2ImageMapper implements Mapper {
         assert listener != null;
         assert pdfMaterial.getFileType() == FileType.PDF;
         //
-        byte[] data = store.read(pdfMaterial);
-        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        if (workers > 1) {
+            mapConcurrently(pdfMaterial);
+            return;
+        }
         // do data format conversion
-        try {
-            PDDocument document = PDDocument.load(bais);
+        long start = System.nanoTime();
+        try (PDDocument document = MaterialFiles.loadPDF(store, pdfMaterial,
+                MemoryUsageSetting.setupMainMemoryOnly())) {
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                    System.nanoTime() - start);
+            RenderProfile profile = renderProfile;
+            ImageEncoder encoder = resolveEncoder(profile);
             PDFRenderer pdfRenderer = new PDFRenderer(document);
-            for (int page = 0; page < document.getNumberOfPages(); ++page) {
+            int[] pages = profile.selectPages(document.getNumberOfPages());
+            metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES, pages.length);
+            for (int page : pages) {
+                PngEncoder tiling = tilingEncoder(document, page, profile, encoder);
+                if (tiling != null) {
+                    emit(pdfMaterial, renderTiled(pdfRenderer, document, page,
+                            profile, tiling, encoder), profile, encoder);
+                    continue;
+                }
+                start = System.nanoTime();
                 BufferedImage bim = pdfRenderer.renderImageWithDPI(
-                        page, 300, ImageType.RGB);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ImageIOUtil.writeImage(
-                        bim, "png", baos, 300);
+                        page, profile.getDpi(), profile.getImageType());
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                        System.nanoTime() - start);
                 //
-                Metadata metadataWithPage =
-                        Metadata.builder(pdfMaterial.getMetadata())
-                                .put("page", Integer.toString(page + 1))
-                                .build();
-                listener.onMapped(baos.toByteArray(), FileType.PNG, metadataWithPage);
+                emit(pdfMaterial, encode(page, encoder, bim, profile), profile, encoder);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /**
+     * notifies the listener of the page, and then of its thumbnail if any
+     */
+    private void emit(Material pdfMaterial, RenderedPage rendered,
+                      RenderProfile profile, ImageEncoder encoder)
+            throws MaterialstoreException {
+        listener.onMapped(rendered.data, encoder.getFileType(),
+                metadataOf(pdfMaterial, "page", rendered, profile, encoder));
+        if (rendered.thumbnail != null) {
+            listener.onMapped(rendered.thumbnail, encoder.getFileType(),
+                    Metadata.builder(metadataOf(pdfMaterial, "thumbnail_of_page",
+                                    rendered, profile, encoder))
+                            .put("render_thumbnail", rendered.thumbnailSize)
+                            .build());
+        }
+    }
+
+    private void mapConcurrently(Material pdfMaterial)
+            throws MaterialstoreException {
+        RenderProfile profile = renderProfile;
+        ImageEncoder encoder = resolveEncoder(profile);
+        // closed after the workers are stopped; a failure to close is added
+        // to the exception of the mapping, if any, as a suppressed one
+        try (PerThreadDocuments documents = new PerThreadDocuments(store,
+                pdfMaterial, MemoryUsageSetting.setupMainMemoryOnly())) {
+            ExecutorService renderers = Executors.newFixedThreadPool(workers);
+            ExecutorService encoders = Executors.newFixedThreadPool(workers);
+            try {
+                int[] pages;
+                long start = System.nanoTime();
+                try (PDDocument document = documents.open()) {
+                    pages = profile.selectPages(document.getNumberOfPages());
+                }
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                        System.nanoTime() - start);
+                metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES, pages.length);
+                Iterator<Future<RenderedPage>> submissions =
+                        new Iterator<Future<RenderedPage>>() {
+                            private int i = 0;
+                            @Override
+                            public boolean hasNext() {
+                                return i < pages.length;
+                            }
+                            @Override
+                            public Future<RenderedPage> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int p = pages[i++];
+                                // a tiled page is encoded while rendered, so it skips the encoders
+                                return CompletableFuture
+                                        .supplyAsync(() -> render(documents, p, profile, encoder), renderers)
+                                        .thenApplyAsync(r -> (r.tiled != null)
+                                                ? r.tiled : encode(p, encoder, r.image, profile), encoders);
+                            }
+                        };
+                // bounds the number of rendered images held in memory
+                OrderedTasks.emitInOrder(submissions, workers * 2,
+                        rendered -> emit(pdfMaterial, rendered, profile, encoder));
+            } finally {
+                OrderedTasks.shutdown(renderers);
+                OrderedTasks.shutdown(encoders);
             }
         } catch (IOException e) {
             throw new MaterialstoreException(e);
         }
     }
+
+    private Rendering render(PerThreadDocuments documents, int page,
+                             RenderProfile profile, ImageEncoder encoder) {
+        try {
+            PDDocument document = documents.get();
+            PDFRenderer pdfRenderer = new PDFRenderer(document);
+            PngEncoder tiling = tilingEncoder(document, page, profile, encoder);
+            if (tiling != null) {
+                return new Rendering(null,
+                        renderTiled(pdfRenderer, document, page, profile, tiling, encoder));
+            }
+            long start = System.nanoTime();
+            BufferedImage bim = pdfRenderer.renderImageWithDPI(page,
+                    profile.getDpi(), profile.getImageType());
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                    System.nanoTime() - start);
+            return new Rendering(bim, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the PngEncoder to write the page strip by strip,
+     * or null if the page is to be rendered whole
+     */
+    private PngEncoder tilingEncoder(PDDocument document, int page,
+                                     RenderProfile profile, ImageEncoder encoder) {
+        if (tilingThreshold < 0 || encoder.getFileType() != FileType.PNG) {
+            return null;
+        }
+        int[] size = pixelSize(document.getPage(page), profile.getDpi());
+        if ((long) size[0] * size[1] <= tilingThreshold) {
+            return null;
+        }
+        return (encoder instanceof PngEncoder)
+                ? (PngEncoder) encoder : PngEncoder.balanced();
+    }
+
+    /**
+     * renders the page into strips of stripHeight rows through a translated
+     * Graphics2D, and streams each strip into the PNG and the Sidecars
+     */
+    private RenderedPage renderTiled(PDFRenderer pdfRenderer, PDDocument document,
+                                     int page, RenderProfile profile, PngEncoder png,
+                                     ImageEncoder encoder)
+            throws IOException {
+        PDPage pdPage = document.getPage(page);
+        int[] size = pixelSize(pdPage, profile.getDpi());
+        int width = size[0];
+        int height = size[1];
+        int imageType = bufferedImageTypeOf(profile.getImageType());
+        float scale = profile.getDpi() / 72f;
+        BufferedImage strip = new BufferedImage(width,
+                Math.min(stripHeight, height), imageType);
+        // as PDFRenderer.renderImage() does, a page with a blend mode is drawn
+        // on a transparent canvas, which is then flattened onto white
+        BufferedImage canvas = (imageType != BufferedImage.TYPE_INT_ARGB && hasBlendMode(pdPage))
+                ? new BufferedImage(width, strip.getHeight(), BufferedImage.TYPE_INT_ARGB)
+                : null;
+        int channels = PngEncoder.channelsOf(strip);
+        // grows as the strips are written, rather than reserving an estimate
+        // for the whole page up front
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                PngEncoder.estimateSize(width, strip.getHeight(), channels));
+        Sidecars sidecars = newSidecars(width, height);
+        try (PngEncoder.StripWriter writer =
+                     png.newStripWriter(baos, width, height, channels, profile.getDpi())) {
+            for (int y0 = 0; y0 < height; y0 += stripHeight) {
+                int rows = Math.min(stripHeight, height - y0);
+                BufferedImage target = (rows == strip.getHeight())
+                        ? strip : strip.getSubimage(0, 0, width, rows);
+                long start = System.nanoTime();
+                if (canvas == null) {
+                    renderStrip(pdfRenderer, page, target, y0, scale);
+                } else {
+                    BufferedImage transparent = (rows == canvas.getHeight())
+                            ? canvas : canvas.getSubimage(0, 0, width, rows);
+                    renderStrip(pdfRenderer, page, transparent, y0, scale);
+                    Graphics2D g = target.createGraphics();
+                    try {
+                        g.setBackground(Color.WHITE);
+                        g.clearRect(0, 0, width, rows);
+                        g.drawImage(transparent, 0, 0, null);
+                    } finally {
+                        g.dispose();
+                    }
+                }
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                        System.nanoTime() - start);
+                start = System.nanoTime();
+                writer.write(target);
+                if (sidecars != null) {
+                    sidecars.add(target, y0);
+                }
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.ENCODE,
+                        System.nanoTime() - start);
+            }
+            writer.finish();
+        }
+        RenderedPage rendered = new RenderedPage(page, baos.toByteArray());
+        if (sidecars != null) {
+            long start = System.nanoTime();
+            sidecars.attachTo(rendered, encoder, profile);
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.ENCODE,
+                    System.nanoTime() - start);
+        }
+        return rendered;
+    }
+
+    /**
+     * draws the rows y0 and below of the page into the strip, on a white
+     * background, or a transparent one if the strip is ARGB
+     */
+    private static void renderStrip(PDFRenderer pdfRenderer, int page,
+                                    BufferedImage strip, int y0, float scale)
+            throws IOException {
+        Graphics2D g = strip.createGraphics();
+        try {
+            g.setBackground(strip.getType() == BufferedImage.TYPE_INT_ARGB
+                    ? new Color(0, 0, 0, 0) : Color.WHITE);
+            g.clearRect(0, 0, strip.getWidth(), strip.getHeight());
+            g.translate(0, -y0);
+            // EXPORT, the destination of PDFRenderer.renderImage(), for the
+            // same optional content to show
+            pdfRenderer.renderPageToGraphics(page, g, scale, scale,
+                    RenderDestination.EXPORT);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * @return true if the page has a blend mode other than Normal in its
+     * resources, the test of PDFRenderer.renderImage()
+     */
+    private static boolean hasBlendMode(PDPage page) throws IOException {
+        PDResources resources = page.getResources();
+        if (resources == null) {
+            return false;
+        }
+        for (COSName name : resources.getExtGStateNames()) {
+            PDExtendedGraphicsState extGState = resources.getExtGState(name);
+            if (extGState != null && extGState.getBlendMode() != BlendMode.NORMAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the Sidecars to be fed with a page of width x height,
+     * or null if neither the hash nor the thumbnail is wanted
+     */
+    private Sidecars newSidecars(int width, int height) {
+        if (!perceptualHash && thumbnailWidth == 0) {
+            return null;
+        }
+        AreaAverager thumbnail = null;
+        if (thumbnailWidth > 0) {
+            int w = Math.min(thumbnailWidth, width);
+            int h = (int) Math.max(Math.round((double) height * w / width), 1);
+            thumbnail = new AreaAverager(width, height, w, h);
+        }
+        return new Sidecars(
+                perceptualHash ? PerceptualHash.newGrid(width, height) : null,
+                thumbnail, width);
+    }
+
+    /**
+     * @return {width, height} of the page rendered at the dpi,
+     * computed as PDFRenderer.renderImage() does
+     */
+    static int[] pixelSize(PDPage page, int dpi) {
+        float scale = dpi / 72f;
+        PDRectangle cropBox = page.getCropBox();
+        int width = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int height = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        int rotation = page.getRotation();
+        if (rotation == 90 || rotation == 270) {
+            return new int[] { height, width };
+        }
+        return new int[] { width, height };
+    }
+
+    private static int bufferedImageTypeOf(ImageType imageType) {
+        switch (imageType) {
+            case BINARY:
+                return BufferedImage.TYPE_BYTE_BINARY;
+            case GRAY:
+                return BufferedImage.TYPE_BYTE_GRAY;
+            case ARGB:
+                return BufferedImage.TYPE_INT_ARGB;
+            default:
+                return BufferedImage.TYPE_INT_RGB;
+        }
+    }
+
+    private ImageEncoder resolveEncoder(RenderProfile profile) {
+        return (imageEncoder != null)
+                ? imageEncoder : new ImageIOEncoder(profile.getImageFormat());
+    }
+
+    /**
+     * encodes the page, and computes its Sidecars from the same
+     * BufferedImage rather than decoding the encoded image
+     */
+    private RenderedPage encode(int page, ImageEncoder encoder, BufferedImage bim,
+                                RenderProfile profile) {
+        try {
+            long start = System.nanoTime();
+            RenderedPage rendered = new RenderedPage(page,
+                    encoder.encode(bim, profile.getDpi()));
+            Sidecars sidecars = newSidecars(bim.getWidth(), bim.getHeight());
+            if (sidecars != null) {
+                sidecars.add(bim, 0);
+                sidecars.attachTo(rendered, encoder, profile);
+            }
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.ENCODE,
+                    System.nanoTime() - start);
+            return rendered;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param pageKey the key of the page number, "page" for the image of
+     *                the page itself
+     */
+    private static Metadata metadataOf(Material pdfMaterial, String pageKey,
+                                       RenderedPage rendered,
+                                       RenderProfile profile,
+                                       ImageEncoder encoder) {
+        Metadata metadata = Metadata.builder(pdfMaterial.getMetadata())
+                .put(pageKey, Integer.toString(rendered.page + 1))
+                .put("render_dpi", Integer.toString(profile.getDpi()))
+                .put("render_image_type", profile.getImageType().name())
+                .put("render_format", encoder.getFormatName())
+                .put("render_pages", profile.getPagesDescription())
+                .build();
+        if (rendered.dhash != null) {
+            metadata = Metadata.builder(metadata)
+                    .put("render_dhash", rendered.dhash)
+                    .build();
+        }
+        return metadata;
+    }
+
+    /**
+     * either a rendered image to be encoded, or the encoded tiled page
+     */
+    private static final class Rendering {
+        private final BufferedImage image;
+        private final RenderedPage tiled;
+        Rendering(BufferedImage image, RenderedPage tiled) {
+            this.image = image;
+            this.tiled = tiled;
+        }
+    }
+
+    private static final class RenderedPage {
+        private final int page;
+        private final byte[] data;
+        private String dhash = null;
+        private byte[] thumbnail = null;
+        private String thumbnailSize = null;
+        RenderedPage(int page, byte[] data) {
+            this.page = page;
+            this.data = data;
+        }
+    }
+
+    /**
+     * reduces the pixels of a page, whole or strip by strip, into the grid
+     * of the PerceptualHash and the thumbnail; each row is read once for both
+     */
+    private static final class Sidecars {
+        private final AreaAverager hash;
+        private final AreaAverager thumbnail;
+        private final int[] line;
+        Sidecars(AreaAverager hash, AreaAverager thumbnail, int width) {
+            this.hash = hash;
+            this.thumbnail = thumbnail;
+            this.line = new int[width];
+        }
+        void add(BufferedImage strip, int y0) {
+            for (int y = 0; y < strip.getHeight(); y++) {
+                AreaAverager.readRow(strip, y, line);
+                if (hash != null) {
+                    hash.addRow(y0 + y, line);
+                }
+                if (thumbnail != null) {
+                    thumbnail.addRow(y0 + y, line);
+                }
+            }
+        }
+        void attachTo(RenderedPage rendered, ImageEncoder encoder,
+                      RenderProfile profile) throws IOException {
+            if (hash != null) {
+                rendered.dhash = PerceptualHash.toHex(PerceptualHash.dHash(hash));
+            }
+            if (thumbnail != null) {
+                int imageType = (profile.getImageType() == ImageType.GRAY
+                        || profile.getImageType() == ImageType.BINARY)
+                        ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+                int w = thumbnail.getColumns();
+                // the DPI at which the thumbnail shows the page in its real size
+                int dpi = (int) Math.max(Math.round(
+                        (double) profile.getDpi() * w / line.length), 1);
+                rendered.thumbnail = encoder.encode(thumbnail.toImage(imageType), dpi);
+                rendered.thumbnailSize = w + "x" + thumbnail.getRows();
+            }
+        }
+    }
 }
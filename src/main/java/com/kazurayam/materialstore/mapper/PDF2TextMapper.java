@@ -0,0 +1,204 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.map.Mapper;
+import com.kazurayam.materialstore.map.MappingListener;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Extracts the text of a PDF with PDFTextStripper of PDFBox into TXT.
+ * Much cheaper than PDF2HTMLMapper when only the text is to be compared,
+ * as the layout is not reproduced.
+ */
+public final class PDF2TextMapper implements Mapper, Instrumentable {
+
+    private Store store = null;
+    private MappingListener listener = null;
+    private boolean perPage = true;
+    private int workers = 1;
+    private MapperMetrics metrics = MapperMetrics.NOOP;
+
+    @Override
+    public void setStore(Store store) {
+        Objects.requireNonNull(store);
+        this.store = store;
+    }
+
+    @Override
+    public void setMappingListener(MappingListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * If true, the text of each page is emitted as a TXT of its own, with
+     * the "page" metadata (1, 2, 3, ...) as PDF2ImageMapper does.
+     * If false, the text of the whole PDF is emitted as a single TXT.
+     * Default: true
+     */
+    public void setPerPage(boolean perPage) {
+        this.perPage = perPage;
+    }
+
+    /**
+     * In the per-page mode, if set 2 or more, pages are extracted
+     * concurrently by this many workers, each of which loads a PDDocument
+     * of its own. The MappingListener is still notified in the order of pages.
+     * Default: 1
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException(
+                    "workers must be 1 or more: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    @Override
+    public void setMetrics(MapperMetrics metrics) {
+        Objects.requireNonNull(metrics);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void map(Material pdfMaterial) throws MaterialstoreException {
+        Objects.requireNonNull(pdfMaterial);
+        assert store != null;
+        assert listener != null;
+        assert pdfMaterial.getFileType() == FileType.PDF;
+        //
+        if (perPage) {
+            mapPerPage(pdfMaterial);
+            return;
+        }
+        byte[] text;
+        long start = System.nanoTime();
+        try (PDDocument document = MaterialFiles.loadPDF(store, pdfMaterial,
+                MemoryUsageSetting.setupMainMemoryOnly())) {
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                    System.nanoTime() - start);
+            metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES,
+                    document.getNumberOfPages());
+            start = System.nanoTime();
+            text = new PDFTextStripper().getText(document)
+                    .getBytes(StandardCharsets.UTF_8);
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                    System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        listener.onMapped(text, FileType.TXT, pdfMaterial.getMetadata());
+    }
+
+    private void mapPerPage(Material pdfMaterial) throws MaterialstoreException {
+        // closed after the workers are stopped; a failure to close is added
+        // to the exception of the mapping, if any, as a suppressed one
+        try (PerThreadDocuments documents = new PerThreadDocuments(store,
+                pdfMaterial, MemoryUsageSetting.setupMainMemoryOnly())) {
+            ExecutorService extractors =
+                    (workers > 1) ? Executors.newFixedThreadPool(workers) : null;
+            try {
+                long start = System.nanoTime();
+                if (extractors == null) {
+                    PDDocument document = documents.get();
+                    int numberOfPages = document.getNumberOfPages();
+                    metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                            System.nanoTime() - start);
+                    metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES, numberOfPages);
+                    for (int page = 1; page <= numberOfPages; page++) {
+                        listener.onMapped(toText(document, page), FileType.TXT,
+                                metadataWithPage(pdfMaterial, page));
+                    }
+                    return;
+                }
+                int numberOfPages;
+                try (PDDocument document = documents.open()) {
+                    numberOfPages = document.getNumberOfPages();
+                }
+                metrics.recordPhase(getClass(), MapperMetrics.Phase.READ,
+                        System.nanoTime() - start);
+                metrics.recordUnits(getClass(), MapperMetrics.UNIT_PAGES, numberOfPages);
+                Iterator<Future<ExtractedPage>> submissions =
+                        new Iterator<Future<ExtractedPage>>() {
+                            private int page = 1;
+                            @Override
+                            public boolean hasNext() {
+                                return page <= numberOfPages;
+                            }
+                            @Override
+                            public Future<ExtractedPage> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int p = page++;
+                                return CompletableFuture.supplyAsync(
+                                        () -> extract(documents, p), extractors);
+                            }
+                        };
+                OrderedTasks.emitInOrder(submissions, workers * 2,
+                        extracted -> listener.onMapped(extracted.data, FileType.TXT,
+                                metadataWithPage(pdfMaterial, extracted.page)));
+            } finally {
+                if (extractors != null) {
+                    OrderedTasks.shutdown(extractors);
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    private ExtractedPage extract(PerThreadDocuments documents, int page) {
+        try {
+            return new ExtractedPage(page, toText(documents.get(), page));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param page 1-based
+     */
+    private byte[] toText(PDDocument document, int page) throws IOException {
+        long start = System.nanoTime();
+        // PDFTextStripper is not thread-safe; one per page is cheap enough
+        PDFTextStripper stripper = new PDFTextStripper();
+        stripper.setStartPage(page);
+        stripper.setEndPage(page);
+        byte[] text = stripper.getText(document).getBytes(StandardCharsets.UTF_8);
+        metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                System.nanoTime() - start);
+        return text;
+    }
+
+    private static Metadata metadataWithPage(Material pdfMaterial, int page) {
+        return Metadata.builder(pdfMaterial.getMetadata())
+                .put("page", Integer.toString(page))
+                .build();
+    }
+
+    private static final class ExtractedPage {
+        private final int page;
+        private final byte[] data;
+        ExtractedPage(int page, byte[] data) {
+            this.page = page;
+            this.data = data;
+        }
+    }
+}
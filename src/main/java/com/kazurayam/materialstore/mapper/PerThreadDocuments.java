@@ -0,0 +1,79 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PDDocument and the objects derived from it (PDFRenderer, PDFTextStripper)
+ * are not thread-safe. This class lets each worker thread load a PDDocument
+ * of its own out of a single PDF Material, and closes them all at the end.
+ *
+ * The file in the store is resolved once; if the store is not on the local
+ * filesystem the content is read into a byte[] once and shared by the
+ * workers.
+ */
+final class PerThreadDocuments implements Closeable {
+
+    private final File file;
+    private final byte[] data;
+    private final MemoryUsageSetting memUsageSetting;
+    private final Map<Thread, PDDocument> documents;
+
+    PerThreadDocuments(Store store, Material material,
+                       MemoryUsageSetting memUsageSetting)
+            throws MaterialstoreException {
+        this.file = MaterialFiles.toFile(material);
+        this.data = (file == null) ? store.read(material) : null;
+        this.memUsageSetting = memUsageSetting;
+        this.documents = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the PDDocument dedicated to the current thread
+     */
+    PDDocument get() throws IOException {
+        Thread current = Thread.currentThread();
+        PDDocument document = documents.get(current);
+        if (document == null) {
+            document = open();
+            documents.put(current, document);
+        }
+        return document;
+    }
+
+    /**
+     * @return a new PDDocument which the caller is responsible to close
+     */
+    PDDocument open() throws IOException {
+        if (file != null) {
+            return PDDocument.load(file, memUsageSetting);
+        } else {
+            return PDDocument.load(data, "", null, null, memUsageSetting);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (PDDocument document : documents.values()) {
+            try {
+                document.close();
+            } catch (IOException e) {
+                failure = (failure == null) ? e : failure;
+            }
+        }
+        documents.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
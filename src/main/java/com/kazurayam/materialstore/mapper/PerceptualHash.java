@@ -0,0 +1,83 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+
+/**
+ * A 64 bit difference hash (dHash) of an image. The image is reduced to
+ * 9 x 8 cells of its average luminance, and each bit tells whether a cell
+ * is brighter than its neighbour on the right. Images that look alike have
+ * hashes that differ in a few bits, whatever their size and encoding, so
+ * the hamming distance of two hashes tells how different two renderings
+ * of a page are without decoding them.
+ *
+ * PDF2ImageMapper attaches the hash of each page as the "render_dhash"
+ * metadata, formatted by toHex().
+ */
+public final class PerceptualHash {
+
+    static final int COLUMNS = 9;
+    static final int ROWS = 8;
+
+    private PerceptualHash() {}
+
+    public static long dHash(BufferedImage image) {
+        Objects.requireNonNull(image);
+        AreaAverager grid = newGrid(image.getWidth(), image.getHeight());
+        grid.add(image, 0);
+        return dHash(grid);
+    }
+
+    /**
+     * @return the number of bits in which the two hashes differ, 0 to 64
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+    /**
+     * @return 16 hexadecimal digits
+     */
+    public static String toHex(long hash) {
+        return String.format("%016x", hash);
+    }
+
+    public static long parseHex(String hex) {
+        Objects.requireNonNull(hex);
+        if (hex.length() != 16) {
+            throw new IllegalArgumentException("not 16 hexadecimal digits: " + hex);
+        }
+        return Long.parseUnsignedLong(hex, 16);
+    }
+
+    /**
+     * @return an AreaAverager to be fed with an image of width x height
+     * and then passed to dHash(AreaAverager)
+     */
+    static AreaAverager newGrid(int width, int height) {
+        return new AreaAverager(width, height, COLUMNS, ROWS);
+    }
+
+    static long dHash(AreaAverager grid) {
+        if (grid.getColumns() != COLUMNS || grid.getRows() != ROWS) {
+            throw new IllegalArgumentException("the grid must be "
+                    + COLUMNS + "x" + ROWS + ": "
+                    + grid.getColumns() + "x" + grid.getRows());
+        }
+        int[] rgb = grid.averageRGB();
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int left = luminance(rgb[row * COLUMNS + column]);
+                int right = luminance(rgb[row * COLUMNS + column + 1]);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    // ITU-R BT.601, scaled by 1000
+    private static int luminance(int rgb) {
+        return 299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114 * (rgb & 0xff);
+    }
+}
@@ -0,0 +1,660 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG writer with a selectable compression level and filter strategy,
+ * which optionally deflates horizontal strips of the image in parallel.
+ * The output is a standard 8-bit PNG (grayscale, RGB or RGBA) readable by
+ * any decoder.
+ *
+ * Parallel deflate works like pigz: every strip is compressed on its own and
+ * ended with a sync flush, so the compressed strips simply concatenate into
+ * one zlib stream. The Adler-32 checksums of the strips are combined.
+ * The strips do not share a dictionary, which costs a little size.
+ *
+ * Speed versus size, roughly, for rendered document pages:
+ * <table>
+ *     <caption>presets</caption>
+ *     <tr><th>preset</th><th>level</th><th>filter</th><th>threads</th><th>speed</th><th>size</th></tr>
+ *     <tr><td>fastest()</td><td>1</td><td>UP</td><td>all cores</td><td>fastest</td><td>largest</td></tr>
+ *     <tr><td>balanced()</td><td>6</td><td>UP</td><td>1</td><td>about ImageIO</td><td>close to ImageIO</td></tr>
+ *     <tr><td>smallest()</td><td>9</td><td>ADAPTIVE</td><td>1</td><td>several times slower</td><td>smallest</td></tr>
+ * </table>
+ * The filter affects the size more than the level does on pages with large
+ * flat areas: UP is cheap and good for text and line art, ADAPTIVE tries
+ * all five filters on every row and picks the best, which costs CPU.
+ *
+ * newStripWriter() writes a PNG whose rows are given strip by strip, so that
+ * an image too large for the heap never exists as a whole; see the tiled
+ * rendering of PDF2ImageMapper.
+ *
+ * Instances are immutable and thread-safe.
+ */
+public final class PngEncoder implements ImageEncoder {
+
+    /**
+     * PNG row filters. ADAPTIVE chooses a filter per row by the minimum sum
+     * of absolute differences heuristic.
+     */
+    public enum Filter {
+        NONE(0), SUB(1), UP(2), AVERAGE(3), PAETH(4), ADAPTIVE(-1);
+
+        private final int type;
+
+        Filter(int type) {
+            this.type = type;
+        }
+    }
+
+    private static final byte[] SIGNATURE =
+            {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int IDAT_CHUNK_SIZE = 256 * 1024;
+    private static final int MIN_ROWS_PER_STRIP = 32;
+
+    private final int compressionLevel;
+    private final Filter filter;
+    private final int threads;
+
+    private PngEncoder(Builder builder) {
+        this.compressionLevel = builder.compressionLevel;
+        this.filter = builder.filter;
+        this.threads = builder.threads;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * level 1, UP filter, strips deflated on all available processors
+     */
+    public static PngEncoder fastest() {
+        return builder().compressionLevel(1).filter(Filter.UP)
+                .threads(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    /**
+     * level 6, UP filter, single thread
+     */
+    public static PngEncoder balanced() {
+        return builder().compressionLevel(6).filter(Filter.UP).build();
+    }
+
+    /**
+     * level 9, ADAPTIVE filter, single thread
+     */
+    public static PngEncoder smallest() {
+        return builder().compressionLevel(9).filter(Filter.ADAPTIVE).build();
+    }
+
+    @Override
+    public String getFormatName() {
+        return "png";
+    }
+
+    @Override
+    public FileType getFileType() {
+        return FileType.PNG;
+    }
+
+    @Override
+    public byte[] encode(BufferedImage image, int dpi) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int channels = channelsOf(image);
+        ByteArrayOutputStream baos =
+                new ByteArrayOutputStream(estimateSize(width, height, channels));
+        DataOutputStream out = new DataOutputStream(baos);
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, channels);
+        if (dpi > 0) {
+            writePhysicalDimension(out, dpi);
+        }
+        writeImageData(out, image, channels);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Starts a PNG of the given size, whose rows are then given by
+     * StripWriter.write() in horizontal strips from the top.
+     * The strips are filtered and deflated on the calling thread as they
+     * come; only a strip and two rows are held at a time.
+     * The pixels are identical to encode() of the whole image.
+     *
+     * @param channels 1 (grayscale), 3 (RGB) or 4 (RGBA), as channelsOf()
+     *                 tells for the strips
+     */
+    StripWriter newStripWriter(OutputStream out, int width, int height,
+                               int channels, int dpi) throws IOException {
+        return new StripWriter(out, width, height, channels, dpi);
+    }
+
+    /**
+     * Pre-sizes the output buffer from the image dimensions, so that it does
+     * not grow by repeated doubling. Rendered pages are mostly flat and
+     * usually compress better than 8:1.
+     */
+    static int estimateSize(int width, int height, int channels) {
+        long raw = (long) height * ((long) width * channels + 1);
+        long estimate = raw / 8 + 1024;
+        return (int) Math.min(estimate, Integer.MAX_VALUE - 8);
+    }
+
+    static int channelsOf(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_BYTE_BINARY:
+                return 1;
+            default:
+                return image.getColorModel().hasAlpha() ? 4 : 3;
+        }
+    }
+
+    private void writeHeader(DataOutputStream out, int width, int height,
+                             int channels) throws IOException {
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+        DataOutputStream data = new DataOutputStream(ihdr);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(8);                          // bit depth
+        data.writeByte(colorTypeOf(channels));
+        data.writeByte(0);                          // compression: deflate
+        data.writeByte(0);                          // filter method: adaptive
+        data.writeByte(0);                          // no interlace
+        byte[] bytes = ihdr.toByteArray();
+        writeChunk(out, "IHDR", bytes, 0, bytes.length);
+    }
+
+    private static int colorTypeOf(int channels) {
+        switch (channels) {
+            case 1: return 0;   // grayscale
+            case 4: return 6;   // RGB + alpha
+            default: return 2;  // RGB
+        }
+    }
+
+    private void writePhysicalDimension(DataOutputStream out, int dpi)
+            throws IOException {
+        int pixelsPerMeter = (int) Math.round(dpi / 0.0254);
+        ByteArrayOutputStream phys = new ByteArrayOutputStream(9);
+        DataOutputStream data = new DataOutputStream(phys);
+        data.writeInt(pixelsPerMeter);
+        data.writeInt(pixelsPerMeter);
+        data.writeByte(1);                          // unit: meter
+        byte[] bytes = phys.toByteArray();
+        writeChunk(out, "pHYs", bytes, 0, bytes.length);
+    }
+
+    static void writeChunk(DataOutputStream out, String type,
+                           byte[] data, int off, int len) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, off, len);
+        out.writeInt(len);
+        out.write(typeBytes);
+        out.write(data, off, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private void writeImageData(DataOutputStream out, BufferedImage image,
+                                int channels) throws IOException {
+        int height = image.getHeight();
+        int rowsPerStrip = (threads > 1)
+                ? Math.max(MIN_ROWS_PER_STRIP, (height + threads * 4 - 1) / (threads * 4))
+                : height;
+        int numberOfStrips = (height + rowsPerStrip - 1) / rowsPerStrip;
+        IdatWriter idat = new IdatWriter(out);
+        idat.write(zlibHeader(compressionLevel));
+        AdlerAccumulator adler = new AdlerAccumulator();
+        if (numberOfStrips <= 1) {
+            CompressedStrip strip = compressStrip(image, channels, 0, height, true);
+            idat.write(strip.data);
+            adler.append(strip.adler, strip.length);
+        } else {
+            ExecutorService executor = ForkJoinPool.commonPool();
+            Iterator<Future<CompressedStrip>> submissions =
+                    new Iterator<Future<CompressedStrip>>() {
+                        private int i = 0;
+                        @Override
+                        public boolean hasNext() {
+                            return i < numberOfStrips;
+                        }
+                        @Override
+                        public Future<CompressedStrip> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int y0 = i * rowsPerStrip;
+                            int y1 = Math.min(height, y0 + rowsPerStrip);
+                            boolean last = (++i == numberOfStrips);
+                            return executor.submit(() ->
+                                    compressStrip(image, channels, y0, y1, last));
+                        }
+                    };
+            try {
+                OrderedTasks.emitInOrder(submissions, threads, strip -> {
+                    try {
+                        idat.write(strip.data);
+                    } catch (IOException e) {
+                        throw new MaterialstoreException(e);
+                    }
+                    adler.append(strip.adler, strip.length);
+                });
+            } catch (MaterialstoreException e) {
+                throw new IOException(e);
+            }
+        }
+        long checksum = adler.value;
+        idat.write(new byte[]{
+                (byte) (checksum >>> 24), (byte) (checksum >>> 16),
+                (byte) (checksum >>> 8), (byte) checksum});
+        idat.close();
+    }
+
+    private static byte[] zlibHeader(int level) {
+        int cmf = 0x78;     // deflate, 32K window
+        int flevel = (level < 2) ? 0 : (level < 6) ? 1 : (level == 6) ? 2 : 3;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    /**
+     * filters and deflates the rows from y0 (inclusive) to y1 (exclusive)
+     * into a raw deflate stream, which ends with a sync flush unless it is
+     * the last strip of the image
+     */
+    private CompressedStrip compressStrip(BufferedImage image, int channels,
+                                          int y0, int y1, boolean last) {
+        int width = image.getWidth();
+        int rowBytes = width * channels;
+        int[] argb = new int[width];
+        byte[] prev = new byte[rowBytes];
+        byte[] cur = new byte[rowBytes];
+        if (y0 > 0) {
+            readRow(image, y0 - 1, channels, prev, argb);
+        }
+        RowFilter rowFilter = new RowFilter(filter, rowBytes, channels);
+        Deflater deflater = new Deflater(compressionLevel, true);
+        deflater.setStrategy(filter == Filter.NONE
+                ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED);
+        Adler32 adler = new Adler32();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                estimateSize(width, y1 - y0, channels));
+        byte[] buf = new byte[64 * 1024];
+        try {
+            for (int y = y0; y < y1; y++) {
+                readRow(image, y, channels, cur, argb);
+                byte[] filtered = rowFilter.apply(cur, prev);
+                adler.update(filtered, 0, rowBytes + 1);
+                deflater.setInput(filtered, 0, rowBytes + 1);
+                while (!deflater.needsInput()) {
+                    int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+                byte[] tmp = prev;
+                prev = cur;
+                cur = tmp;
+            }
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new CompressedStrip(out.toByteArray(), adler.getValue(),
+                (long) (y1 - y0) * (rowBytes + 1));
+    }
+
+    private static void readRow(BufferedImage image, int y, int channels,
+                                byte[] row, int[] argb) {
+        int width = image.getWidth();
+        if (channels == 1 && image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            image.getRaster().getDataElements(0, y, width, 1, row);
+            return;
+        }
+        image.getRGB(0, y, width, 1, argb, 0, width);
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            int c = argb[x];
+            if (channels == 1) {
+                row[i++] = (byte) c;                    // black or white
+            } else {
+                row[i++] = (byte) (c >>> 16);
+                row[i++] = (byte) (c >>> 8);
+                row[i++] = (byte) c;
+                if (channels == 4) {
+                    row[i++] = (byte) (c >>> 24);
+                }
+            }
+        }
+    }
+
+    /**
+     * applies the PNG filter to a row; the returned array starts with the
+     * filter type byte and is reused by the next call
+     */
+    private static final class RowFilter {
+        private final Filter filter;
+        private final int bpp;
+        private final byte[][] candidates;
+
+        RowFilter(Filter filter, int rowBytes, int bpp) {
+            this.filter = filter;
+            this.bpp = bpp;
+            int n = (filter == Filter.ADAPTIVE) ? 5 : 1;
+            this.candidates = new byte[n][rowBytes + 1];
+        }
+
+        byte[] apply(byte[] cur, byte[] prev) {
+            if (filter != Filter.ADAPTIVE) {
+                filterRow(filter.type, cur, prev, candidates[0]);
+                return candidates[0];
+            }
+            byte[] best = null;
+            long bestSum = Long.MAX_VALUE;
+            for (int type = 0; type < 5; type++) {
+                byte[] out = candidates[type];
+                filterRow(type, cur, prev, out);
+                long sum = 0;
+                for (int i = 1; i < out.length; i++) {
+                    sum += Math.abs(out[i]);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = out;
+                }
+            }
+            return best;
+        }
+
+        private void filterRow(int type, byte[] cur, byte[] prev, byte[] out) {
+            out[0] = (byte) type;
+            for (int i = 0; i < cur.length; i++) {
+                int x = cur[i] & 0xFF;
+                int a = (i >= bpp) ? cur[i - bpp] & 0xFF : 0;
+                int b = prev[i] & 0xFF;
+                int c = (i >= bpp) ? prev[i - bpp] & 0xFF : 0;
+                int v;
+                switch (type) {
+                    case 1: v = x - a; break;
+                    case 2: v = x - b; break;
+                    case 3: v = x - ((a + b) >>> 1); break;
+                    case 4: v = x - paeth(a, b, c); break;
+                    default: v = x;
+                }
+                out[i + 1] = (byte) v;
+            }
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            } else if (pb <= pc) {
+                return b;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * combines the Adler-32 checksums of consecutive strips,
+     * as adler32_combine() of zlib does
+     */
+    private static final class AdlerAccumulator {
+        private static final long BASE = 65521;
+        private long value = 1;
+
+        void append(long adler2, long len2) {
+            long rem = len2 % BASE;
+            long sum1 = value & 0xFFFF;
+            long sum2 = (rem * sum1) % BASE;
+            sum1 += (adler2 & 0xFFFF) + BASE - 1;
+            sum2 += ((value >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + BASE - rem;
+            if (sum1 >= BASE) sum1 -= BASE;
+            if (sum1 >= BASE) sum1 -= BASE;
+            if (sum2 >= (BASE << 1)) sum2 -= (BASE << 1);
+            if (sum2 >= BASE) sum2 -= BASE;
+            value = sum1 | (sum2 << 16);
+        }
+    }
+
+    /**
+     * splits the zlib stream into IDAT chunks of a bounded size
+     */
+    private static final class IdatWriter {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count = 0;
+
+        IdatWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte[] data) throws IOException {
+            write(data, 0, data.length);
+        }
+
+        void write(byte[] data, int off, int len) throws IOException {
+            int end = off + len;
+            while (off < end) {
+                int n = Math.min(buffer.length - count, end - off);
+                System.arraycopy(data, off, buffer, count, n);
+                count += n;
+                off += n;
+                if (count == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * writes a PNG from strips of rows; close() releases the Deflater
+     */
+    final class StripWriter implements Closeable {
+        private final DataOutputStream out;
+        private final int width;
+        private final int height;
+        private final int channels;
+        private final IdatWriter idat;
+        private final RowFilter rowFilter;
+        private final Deflater deflater;
+        private final Adler32 adler;
+        private final int[] argb;
+        private final byte[] buf;
+        private byte[] prev;
+        private byte[] cur;
+        private int rows;
+
+        private StripWriter(OutputStream os, int width, int height,
+                            int channels, int dpi) throws IOException {
+            this.out = new DataOutputStream(os);
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            int rowBytes = width * channels;
+            out.write(SIGNATURE);
+            writeHeader(out, width, height, channels);
+            if (dpi > 0) {
+                writePhysicalDimension(out, dpi);
+            }
+            this.idat = new IdatWriter(out);
+            idat.write(zlibHeader(compressionLevel));
+            this.rowFilter = new RowFilter(filter, rowBytes, channels);
+            this.deflater = new Deflater(compressionLevel, true);
+            deflater.setStrategy(filter == Filter.NONE
+                    ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED);
+            this.adler = new Adler32();
+            this.argb = new int[width];
+            this.buf = new byte[64 * 1024];
+            this.prev = new byte[rowBytes];
+            this.cur = new byte[rowBytes];
+            this.rows = 0;
+        }
+
+        /**
+         * @param strip the next rows of the image, as wide as the image
+         */
+        void write(BufferedImage strip) throws IOException {
+            if (strip.getWidth() != width) {
+                throw new IllegalArgumentException("strip is " + strip.getWidth()
+                        + " pixels wide, the image is " + width);
+            }
+            if (rows + strip.getHeight() > height) {
+                throw new IllegalArgumentException("strip exceeds the height "
+                        + height + " of the image");
+            }
+            int rowBytes = width * channels;
+            for (int y = 0; y < strip.getHeight(); y++) {
+                readRow(strip, y, channels, cur, argb);
+                byte[] filtered = rowFilter.apply(cur, prev);
+                adler.update(filtered, 0, rowBytes + 1);
+                deflater.setInput(filtered, 0, rowBytes + 1);
+                while (!deflater.needsInput()) {
+                    int n = deflater.deflate(buf);
+                    idat.write(buf, 0, n);
+                }
+                byte[] tmp = prev;
+                prev = cur;
+                cur = tmp;
+            }
+            rows += strip.getHeight();
+        }
+
+        /**
+         * ends the image; all the rows must have been written
+         */
+        void finish() throws IOException {
+            if (rows != height) {
+                throw new IllegalStateException(rows + " of " + height
+                        + " rows written");
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                idat.write(buf, 0, n);
+            }
+            long checksum = adler.getValue();
+            idat.write(new byte[]{
+                    (byte) (checksum >>> 24), (byte) (checksum >>> 16),
+                    (byte) (checksum >>> 8), (byte) checksum});
+            idat.close();
+            writeChunk(out, "IEND", new byte[0], 0, 0);
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+
+    private static final class CompressedStrip {
+        private final byte[] data;
+        private final long adler;
+        private final long length;
+        CompressedStrip(byte[] data, long adler, long length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+
+    public static final class Builder {
+        private int compressionLevel = 6;
+        private Filter filter = Filter.UP;
+        private int threads = 1;
+
+        private Builder() {}
+
+        /**
+         * 0 (store only) to 9 (smallest, slowest). Default: 6
+         */
+        public Builder compressionLevel(int compressionLevel) {
+            if (compressionLevel < 0 || compressionLevel > 9) {
+                throw new IllegalArgumentException(
+                        "compressionLevel must be 0 to 9: " + compressionLevel);
+            }
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * Default: Filter.UP
+         */
+        public Builder filter(Filter filter) {
+            if (filter == null) {
+                throw new IllegalArgumentException("filter must not be null");
+            }
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * If 2 or more, horizontal strips of the image are deflated
+         * concurrently on the common ForkJoinPool, at most this many at a
+         * time. Default: 1
+         */
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException(
+                        "threads must be 1 or more: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public PngEncoder build() {
+            return new PngEncoder(this);
+        }
+    }
+}
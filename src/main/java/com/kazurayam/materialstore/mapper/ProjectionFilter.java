@@ -0,0 +1,112 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Sits between the SAX parser and XSSFSheetXMLHandler, and drops the
+ * &lt;row&gt; and &lt;c&gt; elements of the sheet XML which a SheetProjection
+ * leaves out, together with everything inside them. The dropped cells are
+ * never formatted nor looked up in the shared strings.
+ *
+ * Once a row below the last selected row is met, the parse is cut short by
+ * throwing EndOfProjection.
+ */
+final class ProjectionFilter extends XMLFilterImpl {
+
+    /**
+     * thrown when the rest of the sheet is not selected
+     */
+    static final class EndOfProjection extends SAXException {
+        EndOfProjection() {
+            super("the rest of the sheet is not selected");
+        }
+    }
+
+    private final SheetProjection projection;
+    private final int lastRow;
+    // 0-based, of the current row and cell
+    private int row;
+    private int column;
+    // greater than 0 while inside a dropped element
+    private int skipDepth;
+
+    ProjectionFilter(XMLReader parent, SheetProjection projection) {
+        super(parent);
+        this.projection = projection;
+        this.lastRow = projection.lastRow();
+        this.row = -1;
+        this.column = -1;
+        this.skipDepth = 0;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+                             Attributes atts) throws SAXException {
+        if (skipDepth > 0) {
+            skipDepth++;
+            return;
+        }
+        String name = localName.isEmpty() ? qName : localName;
+        if ("row".equals(name)) {
+            String r = atts.getValue("r");
+            row = (r != null) ? Integer.parseInt(r) - 1 : row + 1;
+            column = -1;
+            if (row > lastRow) {
+                throw new EndOfProjection();
+            }
+            if (!projection.includesRow(row)) {
+                skipDepth = 1;
+                return;
+            }
+        } else if ("c".equals(name)) {
+            String r = atts.getValue("r");
+            column = (r != null) ? columnOf(r) : column + 1;
+            if (!projection.includesColumn(column)) {
+                skipDepth = 1;
+                return;
+            }
+        }
+        super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+        if (skipDepth > 0) {
+            skipDepth--;
+            return;
+        }
+        super.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (skipDepth == 0) {
+            super.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length)
+            throws SAXException {
+        if (skipDepth == 0) {
+            super.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    /**
+     * @param cellReference e.g. "AB12"
+     * @return 0-based column index
+     */
+    private static int columnOf(String cellReference) {
+        int end = 0;
+        while (end < cellReference.length()
+                && Character.isLetter(cellReference.charAt(end))) {
+            end++;
+        }
+        return SheetProjection.columnIndex(cellReference.substring(0, end));
+    }
+}
@@ -0,0 +1,99 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.map.MappedResultSerializer;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Turns an RSS or Atom feed into a CSV: a header line of the Column names,
+ * then a line per row given by getData(). The same subclass hooks as
+ * RSS2ExcelMapper, without building and zipping a workbook; use this when
+ * the table is only to be compared, not to be read in Excel.
+ * The width of the Columns is ignored.
+ */
+public abstract class RSS2CSVMapper extends AbstractFeedMapper {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(RSS2CSVMapper.class);
+
+    public RSS2CSVMapper() {
+        super();
+    }
+
+    @Override
+    public void map(Material material) throws MaterialstoreException {
+        Objects.requireNonNull(material);
+        List<Column> columns = getColumns();
+        String[] values = new String[columns.size()];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int[] rows = new int[] { 0 };
+        FeedDeltaIndex.Delta delta;
+        long start = System.nanoTime();
+        try (CSVPrinter printer = new CSVPrinter(
+                new BufferedWriter(new OutputStreamWriter(baos, StandardCharsets.UTF_8)),
+                CSVFormat.EXCEL)) {
+            for (Column column : columns) {
+                printer.print(column.name());
+            }
+            printer.println();
+            // parsing and printing the rows are reported together as PARSE
+            delta = writeRows(material, columns, row -> {
+                printRow(printer, columns, row, values);
+                rows[0]++;
+            });
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        } catch (UncheckedIOException e) {
+            throw new MaterialstoreException(e.getCause());
+        }
+        metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                System.nanoTime() - start);
+        metrics.recordUnits(getClass(), MapperMetrics.UNIT_ENTRIES, rows[0]);
+        logger.debug("wrote {} rows into {} bytes of CSV", rows[0], baos.size());
+        //
+        assert listener != MappedResultSerializer.NULL_OBJECT;
+        Metadata metadata = material.getMetadata();
+        if (delta != null) {
+            metadata = delta.tag(metadata);
+        }
+        listener.onMapped(baos.toByteArray(), FileType.CSV, metadata);
+        if (delta != null) {
+            // the output is already emitted; the next mapping will only
+            // compare with an older base
+            try {
+                delta.commit();
+            } catch (MaterialstoreException e) {
+                logger.warn("failed to update the delta index of {}", material, e);
+            }
+        }
+    }
+
+    private static void printRow(CSVPrinter printer, List<Column> columns,
+                                 Map<String, String> row, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            String value = row.get(columns.get(i).name());
+            values[i] = (value != null) ? value : "";
+        }
+        try {
+            printer.printRecord((Object[]) values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
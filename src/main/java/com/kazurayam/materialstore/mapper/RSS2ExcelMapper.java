@@ -4,15 +4,7 @@ import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Metadata;
-import com.kazurayam.materialstore.core.Store;
-import com.kazurayam.materialstore.core.StoreImpl;
 import com.kazurayam.materialstore.map.MappedResultSerializer;
-import com.kazurayam.materialstore.map.Mapper;
-import com.kazurayam.materialstore.map.MappingListener;
-import com.rometools.rome.feed.synd.SyndFeed;
-import com.rometools.rome.io.FeedException;
-import com.rometools.rome.io.SyndFeedInput;
-import com.rometools.rome.io.XmlReader;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.FillPatternType;
@@ -20,102 +12,102 @@ import org.apache.poi.ss.usermodel.IndexedColors;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.URL;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
-public abstract class RSS2ExcelMapper implements Mapper {
+public abstract class RSS2ExcelMapper extends AbstractFeedMapper {
 
     private static final Logger logger =
             LoggerFactory.getLogger(RSS2ExcelMapper.class);
 
-    protected Store store;
-    protected MappingListener listener;
+    private int rowWindow;
 
     public RSS2ExcelMapper() {
-        store = StoreImpl.NULL_OBJECT;
-        listener = MappedResultSerializer.NULL_OBJECT;
+        super();
+        rowWindow = 100;
     }
 
-    @Override
-    public void setStore(Store store) {
-        Objects.requireNonNull(store);
-        this.store = store;
-    }
-
-    @Override
-    public void setMappingListener(MappingListener listener) {
-        Objects.requireNonNull(listener);
-        this.listener = listener;
+    /**
+     * The workbook is written with SXSSFWorkbook, which keeps no more than
+     * this many rows in memory and flushes the older ones to a temporary
+     * file, so that a feed of any length is written in constant memory.
+     * Default: 100
+     */
+    public void setRowWindow(int rowWindow) {
+        if (rowWindow < 1) {
+            throw new IllegalArgumentException(
+                    "rowWindow must be 1 or more: " + rowWindow);
+        }
+        this.rowWindow = rowWindow;
     }
 
     @Override
     public void map(Material material) throws MaterialstoreException {
         Objects.requireNonNull(material);
-        SyndFeed feed = getFeed(material);
-        logger.debug(feed.toString());
-        //
-        Workbook workbook = new XSSFWorkbook();
-        Sheet sheet = createSheet(workbook, getSheetName(), getColumns());
-        // create Header row, place it into the sheet
-        //Row header = createHeaderRow(sheet, getColumnsOfDemo());
-        Row header = createHeaderRow(sheet, getColumns());
-        logger.debug("header: " + header);
-        // write the data rows with different style
-        //List<Map<String, String>> dataGrid = getDataOfDemo();
-        List<Map<String, String>> dataGrid = getData(feed);
-        for (int i = 0; i < dataGrid.size(); i++) {
-            Row data = createDataRow(sheet,
-                    getColumns(),
-                    i + 1, dataGrid.get(i));
-            logger.debug("data: " + data.toString());
-        }
-        // let's write the content into byte[]
+        List<Column> columns = getColumns();
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SXSSFWorkbook workbook = new SXSSFWorkbook(rowWindow);
+        workbook.setCompressTempFiles(true);
+        int[] rowIndex = new int[] { 0 };
+        FeedDeltaIndex.Delta delta;
         try {
+            Sheet sheet = createSheet(workbook, getSheetName(), columns);
+            // one style per role, shared by all the cells of the role
+            CellStyle headerCellStyle = createHeaderCellStyle(workbook);
+            CellStyle dataCellStyle = createDataCellStyle(workbook);
+            // create Header row, place it into the sheet
+            createHeaderRow(sheet, columns, headerCellStyle);
+            // write the data rows with different style, as the feed is read;
+            // parsing and writing the rows are reported together as PARSE
+            long start = System.nanoTime();
+            delta = writeRows(material, columns, row -> createDataRow(sheet, columns,
+                    ++rowIndex[0], row, dataCellStyle));
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.PARSE,
+                    System.nanoTime() - start);
+            metrics.recordUnits(getClass(), MapperMetrics.UNIT_ENTRIES, rowIndex[0]);
+            // let's write the content into byte[]
+            start = System.nanoTime();
             workbook.write(baos);
             workbook.close();
+            metrics.recordPhase(getClass(), MapperMetrics.Phase.ENCODE,
+                    System.nanoTime() - start);
         } catch (IOException e) {
             throw new MaterialstoreException(e);
+        } finally {
+            // deletes the temporary files
+            workbook.dispose();
         }
+        logger.debug("wrote {} rows into {} bytes of XLSX", rowIndex[0], baos.size());
         // let's store the byte[] into the materialstore
         Metadata metadata =
                 Metadata.builder(material.getMetadata())
                         .put("foo", "bar")
                         .build();
         assert listener != MappedResultSerializer.NULL_OBJECT;
+        if (delta != null) {
+            metadata = delta.tag(metadata);
+        }
         listener.onMapped(baos.toByteArray(), FileType.XLSX, metadata);
-    }
-
-    abstract String getSheetName();
-
-    abstract List<Map<String, String>> getData(SyndFeed feed);
-
-    abstract List<Column> getColumns();
-
-    private SyndFeed getFeed(Material material) throws MaterialstoreException {
-        try {
-            URL feedSource = material.toURL();
-            SyndFeedInput input = new SyndFeedInput();
-            SyndFeed feed = null;
+        if (delta != null) {
+            // the output is already emitted; the next mapping will only
+            // compare with an older base
             try {
-                feed = input.build(new XmlReader(feedSource));
-            } catch (FeedException e) {
-                e.printStackTrace();
+                delta.commit();
+            } catch (MaterialstoreException e) {
+                logger.warn("failed to update the delta index of {}", material, e);
             }
-            return feed;
-        } catch (IOException e) {
-            throw new MaterialstoreException(e);
         }
     }
 
+    abstract String getSheetName();
+
     private Sheet createSheet(Workbook workbook, String sheetName, List<Column> columns) {
         Sheet sheet = workbook.createSheet(sheetName);
         for (int i = 0; i < columns.size(); i++) {
@@ -125,12 +117,11 @@ public abstract class RSS2ExcelMapper implements Mapper {
         return sheet;
     }
 
-    private Row createHeaderRow(Sheet sheet, List<Column> columns) {
+    private Row createHeaderRow(Sheet sheet, List<Column> columns,
+                                CellStyle headerCellStyle) {
         Row header = sheet.createRow(0);
-        CellStyle headerCellStyle = createHeaderCellStyle(sheet.getWorkbook());
         for (int i = 0; i < columns.size(); i++) {
-            Cell headerCell = createCell(header, i, columns.get(i).name(), headerCellStyle);
-            logger.debug("headerCell: " + headerCell);
+            createCell(header, i, columns.get(i).name(), headerCellStyle);
         }
         return header;
     }
@@ -150,16 +141,16 @@ public abstract class RSS2ExcelMapper implements Mapper {
         return cellStyle;
     }
 
-    private Row createDataRow(Sheet sheet, List<Column> columns,
-                              int rowIndex, Map<String, String> rowData) {
-        CellStyle style = createDataCellStyle(sheet.getWorkbook());
+    private void createDataRow(Sheet sheet, List<Column> columns,
+                               int rowIndex, Map<String, String> rowData,
+                               CellStyle dataCellStyle) {
         Row row = sheet.createRow(rowIndex);
-        for (int i = 0; i < rowData.size(); i++) {
-            String key = columns.get(i).name();
-            Cell dc = createCell(row, i, rowData.get(key), style);
-            logger.debug("dc0: " + dc);
+        for (int i = 0; i < columns.size(); i++) {
+            String value = rowData.get(columns.get(i).name());
+            if (value != null) {
+                createCell(row, i, value, dataCellStyle);
+            }
         }
-        return row;
     }
 
     private CellStyle createDataCellStyle(Workbook workbook) {
@@ -167,24 +158,4 @@ public abstract class RSS2ExcelMapper implements Mapper {
         style.setWrapText(true);
         return style;
     }
-
-
-    /**
-     *
-     */
-    protected static class Column {
-        private final String name;
-        private final int width;
-        Column(String name, int width) {
-            this.name = name;
-            this.width = width;
-        }
-        String name() {
-            return name;
-        }
-        int width() {
-            return width;
-        }
-    }
-
 }
@@ -24,6 +24,11 @@ public final class RSSDemo2ExcelMapper extends RSS2ExcelMapper {
         return "Sheet1";
     }
 
+    @Override
+    boolean usesSyndFeed() {
+        return true;
+    }
+
     @Override
     List<Map<String, String>> getData(SyndFeed feed) {
         // feed argument is not used
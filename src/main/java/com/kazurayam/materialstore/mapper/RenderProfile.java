@@ -0,0 +1,197 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.apache.pdfbox.rendering.ImageType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tells PDF2ImageMapper how to render the pages of a PDF:
+ * the resolution in DPI, the color model, the output image format and
+ * which pages to render.
+ *
+ * The number of pixels grows with the square of the DPI; rendering at
+ * 300 DPI costs about 9 times the pixels of 100 DPI. For visual regression
+ * testing 96 to 150 DPI in ImageType.GRAY is usually good enough.
+ *
+ * <pre>
+ * RenderProfile profile = RenderProfile.builder()
+ *         .dpi(120)
+ *         .imageType(ImageType.GRAY)
+ *         .pages(1, 3)
+ *         .build();
+ * </pre>
+ */
+public final class RenderProfile {
+
+    /**
+     * 300 DPI, ImageType.RGB, PNG, all pages
+     */
+    public static final RenderProfile DEFAULT = builder().build();
+
+    private final int dpi;
+    private final ImageType imageType;
+    private final ImageFormat imageFormat;
+    private final List<int[]> pageRanges;
+
+    private RenderProfile(Builder builder) {
+        this.dpi = builder.dpi;
+        this.imageType = builder.imageType;
+        this.imageFormat = builder.imageFormat;
+        this.pageRanges = Collections.unmodifiableList(
+                new ArrayList<>(builder.pageRanges));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    public ImageType getImageType() {
+        return imageType;
+    }
+
+    /**
+     * ignored if an ImageEncoder is given to PDF2ImageMapper
+     */
+    public ImageFormat getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * @param pageNumber 1-based page number
+     * @return true if the page should be rendered
+     */
+    public boolean includesPage(int pageNumber) {
+        if (pageRanges.isEmpty()) {
+            return true;
+        }
+        for (int[] range : pageRanges) {
+            if (range[0] <= pageNumber && pageNumber <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param numberOfPages number of pages in the document
+     * @return 0-based indexes of the pages to render, in ascending order
+     */
+    int[] selectPages(int numberOfPages) {
+        int[] selected = new int[numberOfPages];
+        int count = 0;
+        for (int page = 0; page < numberOfPages; page++) {
+            if (includesPage(page + 1)) {
+                selected[count++] = page;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(selected, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * @return the page selection such as "1-3,7", or "all"
+     */
+    public String getPagesDescription() {
+        if (pageRanges.isEmpty()) {
+            return "all";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int[] range : pageRanges) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(range[0]);
+            if (range[1] != range[0]) {
+                sb.append("-").append(range[1] == Integer.MAX_VALUE ? "" : Integer.toString(range[1]));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "RenderProfile{dpi=" + dpi +
+                ", imageType=" + imageType +
+                ", imageFormat=" + imageFormat +
+                ", pages=" + getPagesDescription() + "}";
+    }
+
+    public static final class Builder {
+        private int dpi = 300;
+        private ImageType imageType = ImageType.RGB;
+        private ImageFormat imageFormat = ImageFormat.PNG;
+        private final List<int[]> pageRanges = new ArrayList<>();
+
+        private Builder() {}
+
+        public Builder dpi(int dpi) {
+            if (dpi < 1) {
+                throw new IllegalArgumentException("dpi must be 1 or more: " + dpi);
+            }
+            this.dpi = dpi;
+            return this;
+        }
+
+        public Builder imageType(ImageType imageType) {
+            this.imageType = Objects.requireNonNull(imageType);
+            return this;
+        }
+
+        public Builder imageFormat(ImageFormat imageFormat) {
+            this.imageFormat = Objects.requireNonNull(imageFormat);
+            return this;
+        }
+
+        /**
+         * adds the pages from <code>first</code> to <code>last</code>,
+         * 1-based and inclusive, to the selection.
+         * If no pages are added, all pages are rendered.
+         */
+        public Builder pages(int first, int last) {
+            if (first < 1 || last < first) {
+                throw new IllegalArgumentException(
+                        "invalid page range: " + first + "-" + last);
+            }
+            pageRanges.add(new int[]{first, last});
+            return this;
+        }
+
+        public Builder page(int pageNumber) {
+            return pages(pageNumber, pageNumber);
+        }
+
+        /**
+         * selects the first <code>n</code> pages
+         */
+        public Builder firstPages(int n) {
+            return pages(1, n);
+        }
+
+        /**
+         * selects the pages from <code>first</code> to the end
+         */
+        public Builder pagesFrom(int first) {
+            return pages(first, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the image format can not hold
+         * the image type: JPEG and BMP with ImageType.ARGB
+         */
+        public RenderProfile build() {
+            if (imageType == ImageType.ARGB && imageFormat != ImageFormat.PNG) {
+                throw new IllegalArgumentException(
+                        imageFormat + " can not hold the alpha channel of ImageType.ARGB");
+            }
+            return new RenderProfile(this);
+        }
+    }
+}
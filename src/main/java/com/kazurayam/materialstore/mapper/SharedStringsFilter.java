@@ -0,0 +1,93 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Sits between the SAX parser and XSSFSheetXMLHandler, and resolves the
+ * cells of shared strings against a DiskSharedStrings. A cell
+ * <pre>
+ * &lt;c r="A1" t="s"&gt;&lt;v&gt;42&lt;/v&gt;&lt;/c&gt;
+ * </pre>
+ * is handed down as an inline string
+ * <pre>
+ * &lt;c r="A1" t="inlineStr"&gt;&lt;is&gt;&lt;t&gt;the 42nd string&lt;/t&gt;&lt;/is&gt;&lt;/c&gt;
+ * </pre>
+ * so that XSSFSheetXMLHandler never needs a ReadOnlySharedStringsTable.
+ */
+final class SharedStringsFilter extends XMLFilterImpl {
+
+    private final DiskSharedStrings strings;
+    private final StringBuilder index;
+    private boolean inSharedCell;
+    private boolean inValue;
+
+    SharedStringsFilter(XMLReader parent, DiskSharedStrings strings) {
+        super(parent);
+        this.strings = strings;
+        this.index = new StringBuilder();
+        this.inSharedCell = false;
+        this.inValue = false;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+                             Attributes atts) throws SAXException {
+        String name = localName.isEmpty() ? qName : localName;
+        if ("c".equals(name)) {
+            int t = atts.getIndex("t");
+            inSharedCell = t >= 0 && "s".equals(atts.getValue(t));
+            if (inSharedCell) {
+                AttributesImpl rewritten = new AttributesImpl(atts);
+                rewritten.setValue(t, "inlineStr");
+                super.startElement(uri, localName, qName, rewritten);
+                return;
+            }
+        } else if ("v".equals(name) && inSharedCell) {
+            inValue = true;
+            index.setLength(0);
+            return;
+        }
+        super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+        String name = localName.isEmpty() ? qName : localName;
+        if ("v".equals(name) && inValue) {
+            inValue = false;
+            String value;
+            try {
+                value = strings.get(Integer.parseInt(index.toString().trim()));
+            } catch (RuntimeException e) {
+                throw new SAXException("bad shared string index \"" + index + "\"", e);
+            }
+            String prefix = qName.substring(0, qName.length() - name.length());
+            Attributes none = new AttributesImpl();
+            super.startElement(uri, "is", prefix + "is", none);
+            super.startElement(uri, "t", prefix + "t", none);
+            char[] chars = value.toCharArray();
+            super.characters(chars, 0, chars.length);
+            super.endElement(uri, "t", prefix + "t");
+            super.endElement(uri, "is", prefix + "is");
+            return;
+        }
+        if ("c".equals(name)) {
+            inSharedCell = false;
+        }
+        super.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (inValue) {
+            index.append(ch, start, length);
+            return;
+        }
+        super.characters(ch, start, length);
+    }
+}
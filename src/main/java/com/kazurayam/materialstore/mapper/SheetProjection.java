@@ -0,0 +1,241 @@
+package com.kazurayam.materialstore.mapper;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Selects the sheets, columns and rows of a workbook to be converted.
+ *
+ * A projection is written as a string of up to three clauses separated
+ * by ";", each of which is optional:
+ * <pre>
+ * sheets=Summary,2;columns=A:C,F;rows=2-100,200-
+ * </pre>
+ * <ul>
+ *     <li><code>sheets</code>: sheet names, or 0-based sheet indexes as in
+ *     the "sheet_index" metadata. A name takes precedence over an index:
+ *     "0" selects the sheet named "0" if the workbook has one, and the
+ *     first sheet only if it has none</li>
+ *     <li><code>columns</code>: column letters and ranges of them</li>
+ *     <li><code>rows</code>: 1-based row numbers as shown by Excel, and
+ *     ranges of them; "200-" means from the 200th row to the last</li>
+ * </ul>
+ * A clause left out selects everything.
+ */
+public final class SheetProjection {
+
+    public static final SheetProjection ALL = new SheetProjection(null, null, null, null, "");
+
+    private final Set<String> sheetNames;
+    // the items of the sheets clause which read as an index, to the index
+    private final Map<String, Integer> sheetIndexes;
+    // 0-based column indexes
+    private final BitSet columns;
+    // 0-based, inclusive ranges
+    private final List<int[]> rows;
+    private final String spec;
+
+    private SheetProjection(Set<String> sheetNames, Map<String, Integer> sheetIndexes,
+                            BitSet columns, List<int[]> rows, String spec) {
+        this.sheetNames = sheetNames;
+        this.sheetIndexes = sheetIndexes;
+        this.columns = columns;
+        this.rows = rows;
+        this.spec = spec;
+    }
+
+    public static SheetProjection parse(String spec) {
+        Objects.requireNonNull(spec);
+        Set<String> sheetNames = null;
+        Map<String, Integer> sheetIndexes = null;
+        BitSet columns = null;
+        List<int[]> rows = null;
+        for (String clause : spec.split(";")) {
+            clause = clause.trim();
+            if (clause.isEmpty()) {
+                continue;
+            }
+            int eq = clause.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("not a clause: \"" + clause + "\"");
+            }
+            String name = clause.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            String[] items = clause.substring(eq + 1).split(",");
+            switch (name) {
+                case "sheets":
+                    sheetNames = new HashSet<>();
+                    sheetIndexes = new HashMap<>();
+                    for (String item : items) {
+                        item = item.trim();
+                        sheetNames.add(item);
+                        if (item.matches("\\d+")) {
+                            sheetIndexes.put(item, Integer.parseInt(item));
+                        }
+                    }
+                    break;
+                case "columns":
+                    columns = new BitSet();
+                    for (String item : items) {
+                        String[] range = item.trim().split("[:-]", -1);
+                        int from = columnIndex(range[0]);
+                        int to = (range.length > 1) ? columnIndex(range[1]) : from;
+                        if (range.length > 2 || to < from) {
+                            throw new IllegalArgumentException(
+                                    "not a column range: \"" + item + "\"");
+                        }
+                        columns.set(from, to + 1);
+                    }
+                    break;
+                case "rows":
+                    rows = new ArrayList<>();
+                    for (String item : items) {
+                        String[] range = item.trim().split("-", -1);
+                        int from = rowIndex(range[0]);
+                        int to = from;
+                        if (range.length > 1) {
+                            to = range[1].trim().isEmpty()
+                                    ? Integer.MAX_VALUE : rowIndex(range[1]);
+                        }
+                        if (range.length > 2 || to < from) {
+                            throw new IllegalArgumentException(
+                                    "not a row range: \"" + item + "\"");
+                        }
+                        rows.add(new int[] { from, to });
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "unknown clause \"" + name + "\" in \"" + spec + "\"");
+            }
+        }
+        return new SheetProjection(sheetNames, sheetIndexes, columns,
+                (rows != null) ? Collections.unmodifiableList(rows) : null,
+                spec.trim());
+    }
+
+    /**
+     * @return true if every cell of every sheet is selected
+     */
+    public boolean isAll() {
+        return sheetNames == null && columns == null && rows == null;
+    }
+
+    /**
+     * @return true if some of the rows or the columns are left out
+     */
+    boolean selectsCells() {
+        return columns != null || rows != null;
+    }
+
+    /**
+     * @return true if there are items in the sheets clause which may be
+     * either a name or an index, so that resolve() is needed
+     */
+    boolean hasSheetIndexes() {
+        return sheetIndexes != null && !sheetIndexes.isEmpty();
+    }
+
+    /**
+     * @param workbookSheetNames the names of all the sheets of the workbook
+     * @return this projection without the indexes which are the names of
+     * sheets in the workbook, as a name takes precedence over an index
+     */
+    SheetProjection resolve(Collection<String> workbookSheetNames) {
+        if (!hasSheetIndexes()) {
+            return this;
+        }
+        Map<String, Integer> indexes = new HashMap<>(sheetIndexes);
+        indexes.keySet().removeAll(workbookSheetNames);
+        return new SheetProjection(sheetNames, indexes, columns, rows, spec);
+    }
+
+    /**
+     * Call on the projection resolved against the workbook; otherwise an
+     * item such as "0" selects both the sheet named so and the sheet at
+     * the index.
+     */
+    boolean includesSheet(int sheetIndex, String sheetName) {
+        return sheetNames == null
+                || sheetNames.contains(sheetName)
+                || sheetIndexes.containsValue(sheetIndex);
+    }
+
+    /**
+     * @param column 0-based
+     */
+    boolean includesColumn(int column) {
+        return columns == null || columns.get(column);
+    }
+
+    /**
+     * @param row 0-based
+     */
+    boolean includesRow(int row) {
+        if (rows == null) {
+            return true;
+        }
+        for (int[] range : rows) {
+            if (range[0] <= row && row <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the 0-based index of the last row selected; the rows below
+     * need not be read
+     */
+    int lastRow() {
+        if (rows == null) {
+            return Integer.MAX_VALUE;
+        }
+        int last = -1;
+        for (int[] range : rows) {
+            last = Math.max(last, range[1]);
+        }
+        return last;
+    }
+
+    /**
+     * @param letters "A", "Z", "AA", ...
+     * @return 0-based index of the column
+     */
+    static int columnIndex(String letters) {
+        String s = letters.trim().toUpperCase(Locale.ROOT);
+        if (s.isEmpty()) {
+            throw new IllegalArgumentException("no column letters");
+        }
+        int index = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                throw new IllegalArgumentException("not a column: \"" + letters + "\"");
+            }
+            index = index * 26 + (c - 'A' + 1);
+        }
+        return index - 1;
+    }
+
+    private static int rowIndex(String number) {
+        int row = Integer.parseInt(number.trim());
+        if (row < 1) {
+            throw new IllegalArgumentException("rows start at 1: " + row);
+        }
+        return row - 1;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,145 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads RSS 0.9x/1.0/2.0 and Atom feeds with StAX and hands the entries to
+ * an EntryHandler one by one as they are parsed, so that a feed of any
+ * length is read in constant memory.
+ *
+ * The elements named "item" (RSS) or "entry" (Atom) are the entries;
+ * the other elements outside of them (channel title etc.) are skipped.
+ * DTDs and external entities are not processed: a DOCTYPE is skipped, and
+ * a feed which refers to an entity declared in it is rejected with a
+ * MaterialstoreException rather than having the entity expanded.
+ */
+final class StreamingFeedReader {
+
+    interface EntryHandler {
+        void onEntry(FeedEntry entry) throws MaterialstoreException;
+    }
+
+    private final XMLInputFactory factory;
+
+    StreamingFeedReader() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * @return the number of entries read
+     */
+    int read(InputStream in, EntryHandler handler) throws MaterialstoreException {
+        int count = 0;
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && isEntry(reader.getLocalName())) {
+                    handler.onEntry(readEntry(reader));
+                    count++;
+                }
+            }
+            return count;
+        } catch (XMLStreamException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing more to read
+                }
+            }
+        }
+    }
+
+    private static boolean isEntry(String localName) {
+        return "item".equals(localName) || "entry".equals(localName);
+    }
+
+    /**
+     * reads the children of the entry element on which the reader is
+     * positioned, up to its end element
+     */
+    private static FeedEntry readEntry(XMLStreamReader reader) throws XMLStreamException {
+        Map<String, String> elements = new LinkedHashMap<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                // the end of the entry
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String name = nameOf(reader);
+            String value;
+            if ("link".equals(name) && reader.getAttributeValue(null, "href") != null) {
+                // Atom
+                String rel = reader.getAttributeValue(null, "rel");
+                String href = reader.getAttributeValue(null, "href");
+                skipElement(reader);
+                if (rel != null && !"alternate".equals(rel)) {
+                    continue;
+                }
+                value = href;
+            } else {
+                value = readText(reader).trim();
+            }
+            String previous = elements.get(name);
+            elements.put(name, (previous == null) ? value : previous + ", " + value);
+        }
+        return new FeedEntry(elements);
+    }
+
+    private static String nameOf(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        return (prefix == null || prefix.isEmpty())
+                ? reader.getLocalName()
+                : prefix + ":" + reader.getLocalName();
+    }
+
+    /**
+     * @return the text of the element and its descendants; the reader is
+     * left on the end element
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    sb.append(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        readText(reader);
+    }
+}
@@ -0,0 +1,348 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Converts the sheets of a XLSX package into CSV using the event API of
+ * Apache POI (XSSFReader + XSSFSheetXMLHandler) instead of building
+ * a XSSFWorkbook. The sheet XML is parsed with SAX and every row is printed
+ * into the CSV as soon as it has been read, so the heap needed does not
+ * grow with the size of the workbook; only the CSV of a single sheet is
+ * buffered at a time.
+ *
+ * Sheets are reported in the order of the workbook, which is the same order
+ * as Workbook#getSheetAt(int).
+ *
+ * If an ExecutorService is given, the sheets are parsed and encoded
+ * concurrently on it. The SheetListener is still called on the calling
+ * thread in the order of the sheets. At most <code>parallelism</code> sheets
+ * are in flight at a time, which caps the number of CSV buffers in memory.
+ *
+ * A SheetProjection narrows the conversion: the sheets it leaves out are
+ * skipped without being parsed, and the rows and cells it leaves out are
+ * dropped by a ProjectionFilter before XSSFSheetXMLHandler sees them.
+ *
+ * The shared strings table is normally read into a ReadOnlySharedStringsTable
+ * on the heap. If sharedStrings.xml is larger than a threshold, it is put
+ * into a DiskSharedStrings instead, and the cells of shared strings are
+ * resolved by a SharedStringsFilter.
+ */
+final class XlsxStreamingConverter {
+
+    /**
+     * receives the CSV of each sheet
+     */
+    interface SheetListener {
+        void onSheet(int sheetIndex, String sheetName, byte[] csv)
+                throws MaterialstoreException;
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final SheetProjection projection;
+    private final long sharedStringsThreshold;
+    private final Path sharedStringsDirectory;
+    private final boolean formulasNotResults;
+
+    // 64 MiB of sharedStrings.xml, which takes several times as much on the heap
+    static final long DEFAULT_SHARED_STRINGS_THRESHOLD = 64L * 1024 * 1024;
+
+    // the number of decoded strings cached in front of a DiskSharedStrings
+    private static final int SHARED_STRINGS_CACHE_SIZE = 4096;
+
+    XlsxStreamingConverter() {
+        this(null, 1);
+    }
+
+    XlsxStreamingConverter(ExecutorService executor, int parallelism) {
+        this(executor, parallelism, SheetProjection.ALL,
+                DEFAULT_SHARED_STRINGS_THRESHOLD, null, true);
+    }
+
+    /**
+     * @param executor the sheets are converted on this; null to convert
+     *                 them one after another on the calling thread
+     * @param parallelism max number of sheets in flight
+     * @param projection the sheets, columns and rows to convert
+     * @param sharedStringsThreshold the size in bytes of sharedStrings.xml
+     *                               above which the table is kept on disk;
+     *                               -1 to keep it on the heap always
+     * @param sharedStringsDirectory where the table kept on disk is created;
+     *                               null for the system default
+     * @param formulasNotResults true to print the formula text of the cells
+     *                           with a formula, false to print the cached result
+     */
+    XlsxStreamingConverter(ExecutorService executor, int parallelism,
+                           SheetProjection projection,
+                           long sharedStringsThreshold,
+                           Path sharedStringsDirectory,
+                           boolean formulasNotResults) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "parallelism must be 1 or more: " + parallelism);
+        }
+        Objects.requireNonNull(projection);
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.projection = projection;
+        this.sharedStringsThreshold = sharedStringsThreshold;
+        this.sharedStringsDirectory = sharedStringsDirectory;
+        this.formulasNotResults = formulasNotResults;
+    }
+
+    void convert(OPCPackage pkg, SheetListener sheetListener)
+            throws MaterialstoreException {
+        DiskSharedStrings diskStrings = null;
+        try {
+            ReadOnlySharedStringsTable strings = null;
+            PackagePart stringsPart = sharedStringsPart(pkg);
+            if (stringsPart != null && sharedStringsThreshold >= 0
+                    && stringsPart.getSize() > sharedStringsThreshold) {
+                try (InputStream in = stringsPart.getInputStream()) {
+                    diskStrings = DiskSharedStrings.build(in, sharedStringsDirectory,
+                            SHARED_STRINGS_CACHE_SIZE);
+                }
+            } else {
+                strings = new ReadOnlySharedStringsTable(pkg);
+            }
+            SharedStrings shared = new SharedStrings(strings, diskStrings);
+            XSSFReader reader = new XSSFReader(pkg);
+            StylesTable styles = reader.getStylesTable();
+            SheetProjection selection = projection.hasSheetIndexes()
+                    ? projection.resolve(sheetNames(reader)) : projection;
+            Iterator<SheetSource> sheets = new SelectedSheets(selection,
+                    (XSSFReader.SheetIterator) reader.getSheetsData());
+            if (executor != null) {
+                convertConcurrently(styles, shared, sheets, sheetListener);
+                return;
+            }
+            while (sheets.hasNext()) {
+                SheetSource sheet = sheets.next();
+                byte[] csv;
+                try (InputStream sheetStream = sheet.stream) {
+                    csv = convertSheet(styles, shared, sheetStream);
+                }
+                sheetListener.onSheet(sheet.sheetIndex, sheet.sheetName, csv);
+            }
+        } catch (IOException | OpenXML4JException | SAXException
+                 | ParserConfigurationException e) {
+            throw new MaterialstoreException(e);
+        } finally {
+            // convertConcurrently() returns or throws only after every sheet
+            // task has stopped, so no task looks up the table any more
+            if (diskStrings != null) {
+                try {
+                    diskStrings.close();
+                } catch (IOException e) {
+                    // the temporary files will be left behind
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the names of all the sheets, to resolve the projection with;
+     * the sheets are not read
+     */
+    private static List<String> sheetNames(XSSFReader reader)
+            throws IOException, OpenXML4JException {
+        List<String> names = new ArrayList<>();
+        XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+        while (iter.hasNext()) {
+            try (InputStream stream = iter.next()) {
+                names.add(iter.getSheetName());
+            }
+        }
+        return names;
+    }
+
+    private static PackagePart sharedStringsPart(OPCPackage pkg) {
+        List<PackagePart> parts = pkg.getPartsByContentType(
+                XSSFRelation.SHARED_STRINGS.getContentType());
+        return parts.isEmpty() ? null : parts.get(0);
+    }
+
+    private void convertConcurrently(StylesTable styles,
+                                     SharedStrings strings,
+                                     Iterator<SheetSource> sheets,
+                                     SheetListener sheetListener)
+            throws MaterialstoreException {
+        // the executor may be the caller's, and is not shut down here
+        OrderedTasks.Tracker tracker = new OrderedTasks.Tracker();
+        Iterator<Future<ConvertedSheet>> submissions =
+                new Iterator<Future<ConvertedSheet>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return sheets.hasNext();
+                    }
+                    @Override
+                    public Future<ConvertedSheet> next() {
+                        SheetSource sheet = sheets.next();
+                        return executor.submit(tracker.track(() -> {
+                            try (InputStream in = sheet.stream) {
+                                return new ConvertedSheet(sheet.sheetIndex,
+                                        sheet.sheetName,
+                                        convertSheet(styles, strings, in));
+                            }
+                        }));
+                    }
+                };
+        try {
+            OrderedTasks.emitInOrder(submissions, parallelism,
+                    sheet -> sheetListener.onSheet(
+                            sheet.sheetIndex, sheet.sheetName, sheet.csv));
+        } finally {
+            // no sheet is parsed any more when the package is reverted
+            // or the shared strings are closed
+            tracker.close();
+        }
+    }
+
+    private byte[] convertSheet(StylesTable styles,
+                                SharedStrings strings,
+                                InputStream sheetStream)
+            throws IOException, SAXException, ParserConfigurationException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Writer out = new OutputStreamWriter(baos, StandardCharsets.UTF_8);
+        try (CSVPrinter printer = new CSVPrinter(out, CSVFormat.EXCEL)) {
+            XMLReader parser = SAXHelper.newXMLReader();
+            if (projection.selectsCells()) {
+                parser = new ProjectionFilter(parser, projection);
+            }
+            if (strings.onDisk != null) {
+                // after the ProjectionFilter, so that the cells left out are not looked up
+                parser = new SharedStringsFilter(parser, strings.onDisk);
+            }
+            // formulasNotResults=true by default so that FORMULA cells print
+            // the formula text just as Excel2CSVMapperPOI3 does with the DOM
+            parser.setContentHandler(
+                    new XSSFSheetXMLHandler(styles, null, strings.onHeap,
+                            new CSVSheetContentsHandler(printer),
+                            new DataFormatter(), formulasNotResults));
+            try {
+                parser.parse(new InputSource(sheetStream));
+            } catch (ProjectionFilter.EndOfProjection e) {
+                // the rows below are not selected
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * either of the two forms of the shared strings table
+     */
+    private static final class SharedStrings {
+        private final ReadOnlySharedStringsTable onHeap;
+        private final DiskSharedStrings onDisk;
+        SharedStrings(ReadOnlySharedStringsTable onHeap, DiskSharedStrings onDisk) {
+            this.onHeap = onHeap;
+            this.onDisk = onDisk;
+        }
+    }
+
+    /**
+     * a sheet selected by the projection, not parsed yet
+     */
+    private static final class SheetSource {
+        private final int sheetIndex;
+        private final String sheetName;
+        private final InputStream stream;
+        SheetSource(int sheetIndex, String sheetName, InputStream stream) {
+            this.sheetIndex = sheetIndex;
+            this.sheetName = sheetName;
+            this.stream = stream;
+        }
+    }
+
+    /**
+     * iterates over the sheets selected by the projection; the stream of
+     * a sheet left out is closed without being read
+     */
+    private static final class SelectedSheets implements Iterator<SheetSource> {
+        private final SheetProjection projection;
+        private final XSSFReader.SheetIterator iter;
+        private int sheetIndex;
+        private SheetSource pending;
+
+        SelectedSheets(SheetProjection projection, XSSFReader.SheetIterator iter) {
+            this.projection = projection;
+            this.iter = iter;
+            this.sheetIndex = 0;
+            this.pending = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending == null && iter.hasNext()) {
+                InputStream stream = iter.next();
+                String sheetName = iter.getSheetName();
+                int index = sheetIndex++;
+                if (projection.includesSheet(index, sheetName)) {
+                    pending = new SheetSource(index, sheetName, stream);
+                } else {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        // nothing was read from it
+                    }
+                }
+            }
+            return pending != null;
+        }
+
+        @Override
+        public SheetSource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SheetSource sheet = pending;
+            pending = null;
+            return sheet;
+        }
+    }
+
+    private static final class ConvertedSheet {
+        private final int sheetIndex;
+        private final String sheetName;
+        private final byte[] csv;
+        ConvertedSheet(int sheetIndex, String sheetName, byte[] csv) {
+            this.sheetIndex = sheetIndex;
+            this.sheetName = sheetName;
+            this.csv = csv;
+        }
+    }
+}
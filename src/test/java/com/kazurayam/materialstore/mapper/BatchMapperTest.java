@@ -0,0 +1,73 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchMapperTest {
+
+    private static Path outputDir;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(BatchMapperTest.class.getName());
+        Files.createDirectories(outputDir);
+        //
+        Path fixturesDir = projectDir.resolve("src/test/fixtures");
+        Path fixtureDir = fixturesDir.resolve("mapper");
+        FileUtils.copyDirectory(fixtureDir.toFile(), outputDir.toFile());
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_mapAll_isolates_failures() throws MaterialstoreException {
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                QueryOnMetadata.ANY);
+        assertEquals(2, materialList.size());   // an XLSX and a PDF
+        //
+        BatchMapper batch = new BatchMapper(Excel2CSVMapperPOI5::new);
+        batch.setStore(store);
+        batch.setConcurrency(2);
+        int[] csv = new int[1];
+        batch.setMappingListener((data, fileType, metadata) -> {
+            assertEquals(FileType.CSV, fileType);
+            csv[0]++;
+        });
+        BatchMapper.BatchResult result = batch.mapAll(materialList);
+        //
+        assertEquals(2, result.getMaterialCount());
+        assertEquals(1, result.getSucceededCount());
+        assertEquals(1, result.getFailures().size());
+        assertEquals(FileType.PDF,
+                result.getFailures().get(0).getMaterial().getFileType());
+        assertTrue(csv[0] > 0);
+        assertEquals(csv[0], result.getOutputCount());
+    }
+}
@@ -0,0 +1,241 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.map.Mapper;
+import com.kazurayam.materialstore.map.MappingListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CachingMapperTest {
+
+    private static Path outputDir;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(CachingMapperTest.class.getName());
+        Files.createDirectories(outputDir);
+        //
+        Path fixturesDir = projectDir.resolve("src/test/fixtures");
+        Path fixtureDir = fixturesDir.resolve("mapper");
+        FileUtils.copyDirectory(fixtureDir.toFile(), outputDir.toFile());
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_replay_on_hit() throws MaterialstoreException, IOException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.XLSX,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        Path cacheDir = outputDir.resolve("cache");
+        FileUtils.deleteDirectory(cacheDir.toFile());
+        MappingResultCache cache = new MappingResultCache(cacheDir, 100L * 1024 * 1024);
+        CachingMapper mapper = new CachingMapper(new Excel2CSVMapperPOI5(), cache, "default");
+        mapper.setStore(store);
+        //
+        List<byte[]> first = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> first.add(data));
+        mapper.map(materialList.get(0));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        //
+        List<byte[]> second = new ArrayList<>();
+        List<Metadata> secondMetadata = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.CSV, fileType);
+            second.add(data);
+            secondMetadata.add(md);
+        });
+        mapper.map(materialList.get(0));
+        assertEquals(1, cache.getHitCount());
+        assertTrue(first.size() > 0);
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertArrayEquals(first.get(i), second.get(i));
+            assertEquals(Integer.toString(i), secondMetadata.get(i).get("sheet_index"));
+        }
+        // the index survives a restart
+        MappingResultCache reopened = new MappingResultCache(cacheDir, 100L * 1024 * 1024);
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    public void test_key_includes_configuration_and_metadata()
+            throws MaterialstoreException, IOException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.XLSX,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        Path cacheDir = outputDir.resolve("cacheKeys");
+        FileUtils.deleteDirectory(cacheDir.toFile());
+        MappingResultCache cache = new MappingResultCache(cacheDir, 100L * 1024 * 1024);
+        CachingMapper dom = new CachingMapper(new Excel2CSVMapperPOI3(), cache, "dom");
+        Excel2CSVMapperPOI3 streamingMapper = new Excel2CSVMapperPOI3();
+        streamingMapper.setStreaming(true);
+        CachingMapper streaming = new CachingMapper(streamingMapper, cache, "streaming");
+        for (CachingMapper mapper : new CachingMapper[] { dom, streaming }) {
+            mapper.setStore(store);
+            mapper.setMappingListener((data, fileType, md) -> {});
+            mapper.map(materialList.get(0));
+        }
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.size());
+        // the same content with another projection is another entry
+        Material original = materialList.get(0);
+        Material projected = store.write(new JobName("CachingMapperTest"),
+                new JobTimestamp("20221018_120000"), FileType.XLSX,
+                Metadata.builder(original.getMetadata())
+                        .put("projection", "sheets=0;rows=1-2")
+                        .build(),
+                store.read(original));
+        List<byte[]> projectedOutputs = new ArrayList<>();
+        dom.setMappingListener((data, fileType, md) -> projectedOutputs.add(data));
+        dom.map(projected);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.size());
+        assertEquals(1, projectedOutputs.size());
+        assertThrows(IllegalArgumentException.class,
+                () -> new CachingMapper(new Excel2CSVMapperPOI3(), cache, ""));
+    }
+
+    @Test
+    public void test_orphans_are_deleted() throws MaterialstoreException, IOException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.XLSX,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        Path cacheDir = outputDir.resolve("cacheOrphans");
+        FileUtils.deleteDirectory(cacheDir.toFile());
+        MappingResultCache cache = new MappingResultCache(cacheDir, 100L * 1024 * 1024);
+        CachingMapper mapper = new CachingMapper(new Excel2CSVMapperPOI5(), cache, "default");
+        mapper.setStore(store);
+        mapper.setMappingListener((data, fileType, md) -> {});
+        mapper.map(materialList.get(0));
+        assertEquals(1, cache.size());
+        // the index is lost, and a mapping died while staging
+        Files.delete(cacheDir.resolve("index.json"));
+        Files.createDirectories(cacheDir.resolve("staging-dead"));
+        //
+        MappingResultCache reopened = new MappingResultCache(cacheDir, 100L * 1024 * 1024);
+        assertEquals(0, reopened.size());
+        try (Stream<Path> children = Files.list(cacheDir)) {
+            assertEquals(0, children.filter(Files::isDirectory).count());
+        }
+        // the same key is cached again
+        CachingMapper again = new CachingMapper(new Excel2CSVMapperPOI5(), reopened, "default");
+        again.setStore(store);
+        List<byte[]> outputs = new ArrayList<>();
+        again.setMappingListener((data, fileType, md) -> outputs.add(data));
+        again.map(materialList.get(0));
+        assertTrue(outputs.size() > 0);
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    public void test_cache_failure_does_not_fail_the_mapping()
+            throws MaterialstoreException, IOException {
+        Material material = store.write(new JobName("CachingMapperTest"),
+                new JobTimestamp("20221018_120000"), FileType.TXT,
+                Metadata.builder().put("case", "cache_failure").build(),
+                "input".getBytes(StandardCharsets.UTF_8));
+        Path cacheDir = outputDir.resolve("cacheFailure");
+        FileUtils.deleteDirectory(cacheDir.toFile());
+        MappingResultCache cache = new MappingResultCache(cacheDir, 100L * 1024 * 1024);
+        CachingMapper mapper = new CachingMapper(new StagingBreaker(cacheDir), cache, "default");
+        mapper.setStore(store);
+        List<String> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) ->
+                outputs.add(new String(data, StandardCharsets.UTF_8)));
+        mapper.map(material);
+        // every output is emitted, but nothing is cached
+        assertEquals(Arrays.asList("first", "second"), outputs);
+        assertEquals(0, cache.size());
+        try (Stream<Path> children = Files.list(cacheDir)) {
+            assertEquals(0, children.filter(Files::isDirectory).count());
+        }
+    }
+
+    /**
+     * emits two outputs, deleting the staging directory of the cache
+     * in between, as if the disk of the cache failed
+     */
+    private static final class StagingBreaker implements Mapper {
+        private final Path cacheDir;
+        private MappingListener listener;
+        StagingBreaker(Path cacheDir) {
+            this.cacheDir = cacheDir;
+        }
+        @Override
+        public void setStore(Store store) {
+        }
+        @Override
+        public void setMappingListener(MappingListener listener) {
+            this.listener = listener;
+        }
+        @Override
+        public void map(Material material) throws MaterialstoreException {
+            listener.onMapped("first".getBytes(StandardCharsets.UTF_8),
+                    FileType.TXT, material.getMetadata());
+            try (Stream<Path> children = Files.list(cacheDir)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    if (child.getFileName().toString().startsWith("staging-")) {
+                        FileUtils.deleteDirectory(child.toFile());
+                    }
+                }
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+            listener.onMapped("second".getBytes(StandardCharsets.UTF_8),
+                    FileType.TXT, material.getMetadata());
+        }
+    }
+}
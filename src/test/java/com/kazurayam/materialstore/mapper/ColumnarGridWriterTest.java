@@ -0,0 +1,91 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ColumnarGridWriterTest {
+
+    @Test
+    public void test_roundTrip() {
+        ColumnarGridWriter writer = new ColumnarGridWriter();
+        // A: numbers with a blank, B: strings, C: booleans, D: mixed, F: numbers at row 70
+        writer.addNumber(0, 0, 1.5);
+        writer.addNumber(2, 0, -3);
+        writer.addString(0, 1, "apple");
+        writer.addString(1, 1, "日本語");
+        writer.addString(2, 1, "apple");
+        writer.addBoolean(0, 2, true);
+        writer.addBoolean(1, 2, false);
+        writer.addNumber(0, 3, 2);
+        writer.addString(1, 3, "two");
+        writer.addNumber(70, 5, 42);
+        byte[] bytes = writer.toByteArray();
+        assertEquals(0, bytes.length % 8);
+        //
+        ColumnarGridReader reader = ColumnarGridReader.of(bytes);
+        assertEquals(71, reader.getRowCount());
+        assertEquals(6, reader.getColumnCount());
+        assertEquals(ColumnarGridReader.ColumnType.DOUBLE, reader.getColumnType(0));
+        assertEquals(ColumnarGridReader.ColumnType.STRING, reader.getColumnType(1));
+        assertEquals(ColumnarGridReader.ColumnType.BOOLEAN, reader.getColumnType(2));
+        assertEquals(ColumnarGridReader.ColumnType.STRING, reader.getColumnType(3));
+        assertEquals(ColumnarGridReader.ColumnType.BLANK, reader.getColumnType(4));
+        assertEquals(ColumnarGridReader.ColumnType.DOUBLE, reader.getColumnType(5));
+        //
+        DoubleBuffer a = reader.getDoubles(0);
+        assertEquals(71, a.remaining());
+        assertEquals(1.5, a.get(0));
+        assertEquals(-3.0, a.get(2));
+        assertTrue(reader.isBlank(1, 0));
+        assertFalse(reader.isBlank(2, 0));
+        //
+        assertEquals(2, reader.getDictionarySize(1));
+        assertEquals(reader.getCode(0, 1), reader.getCode(2, 1));
+        assertEquals("日本語", reader.getString(1, 1));
+        assertNull(reader.getString(3, 1));
+        //
+        assertTrue(reader.getBoolean(0, 2));
+        assertFalse(reader.getBoolean(1, 2));
+        assertTrue(reader.isBlank(2, 2));
+        //
+        assertEquals("2.0", reader.getString(0, 3));
+        assertEquals("two", reader.getString(1, 3));
+        assertTrue(reader.isBlank(4, 4));
+        assertEquals(42.0, reader.getDouble(70, 5));
+        assertTrue(reader.isBlank(69, 5));
+        //
+        assertThrows(IllegalStateException.class, () -> reader.getDoubles(1));
+        assertThrows(IllegalArgumentException.class,
+                () -> ColumnarGridReader.of(new byte[16]));
+    }
+
+    @Test
+    public void test_typeCodes() {
+        ColumnarGridWriter writer = new ColumnarGridWriter();
+        writer.addNumber(0, 0, 1);
+        writer.addString(0, 1, "a");
+        writer.addBoolean(0, 2, true);
+        writer.addNumber(0, 4, 1);
+        ByteBuffer buffer = ByteBuffer.wrap(writer.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        // the type of each column as written in its directory entry
+        int[] codes = new int[4];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = buffer.getInt(ColumnarGridWriter.HEADER_SIZE
+                    + i * ColumnarGridWriter.DIRECTORY_ENTRY_SIZE);
+        }
+        assertArrayEquals(new int[] { 0, 1, 2, 3 }, codes);
+        assertEquals(ColumnarGridReader.ColumnType.BOOLEAN, ColumnarGridReader.ColumnType.ofCode(2));
+        assertThrows(IllegalArgumentException.class,
+                () -> ColumnarGridReader.ColumnType.ofCode(4));
+    }
+}
@@ -3,6 +3,7 @@ package com.kazurayam.materialstore.mapper;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Metadata;
@@ -10,17 +11,35 @@ import com.kazurayam.materialstore.core.QueryOnMetadata;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.Stores;
 import com.kazurayam.materialstore.map.MappedResultSerializer;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class Excel2CSVMapperPOI3Test {
@@ -70,4 +89,363 @@ public class Excel2CSVMapperPOI3Test {
         assertTrue(result.size() > 0);
         assertEquals(FileType.CSV, result.get(0).getFileType());
     }
+
+    @Test
+    public void test_streaming() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.XLSX,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+        mapper.setStreaming(true);
+        //
+        mapper.setStore(store);
+        JobTimestamp newTimestamp = JobTimestamp.now();
+        MappedResultSerializer serializer =
+                new MappedResultSerializer(store, jobName, newTimestamp);
+        mapper.setMappingListener(serializer);
+        mapper.map(materialList.get(0));
+        //
+        MaterialList result = store.select(jobName, newTimestamp, QueryOnMetadata.ANY);
+        assertTrue(result.size() > 0);
+        assertEquals(FileType.CSV, result.get(0).getFileType());
+        // the same sheets, in the same order, as the DOM mode
+        List<String> dom = new ArrayList<>();
+        mapper.setStreaming(false);
+        mapper.setMappingListener((data, fileType, md) ->
+                dom.add(md.get("sheet_index") + ":" + md.get("sheet_name")));
+        mapper.map(materialList.get(0));
+        List<String> streaming = new ArrayList<>();
+        mapper.setStreaming(true);
+        mapper.setMappingListener((data, fileType, md) ->
+                streaming.add(md.get("sheet_index") + ":" + md.get("sheet_name")));
+        mapper.map(materialList.get(0));
+        assertTrue(dom.size() > 0);
+        assertEquals(dom, streaming);
+    }
+
+    @Test
+    public void test_parallel() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.XLSX,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+        mapper.setParallelism(4);
+        //
+        mapper.setStore(store);
+        List<String> sheetIndexes = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.CSV, fileType);
+            sheetIndexes.add(md.get("sheet_index"));
+        });
+        mapper.map(materialList.get(0));
+        //
+        assertTrue(sheetIndexes.size() > 0);
+        for (int i = 0; i < sheetIndexes.size(); i++) {
+            assertEquals(Integer.toString(i), sheetIndexes.get(i));
+        }
+    }
+
+    @Test
+    public void test_projection() throws MaterialstoreException, IOException {
+        Material material = store.write(new JobName("test_projection"),
+                new JobTimestamp("20221018_100000"), FileType.XLSX,
+                Metadata.builder().put("sheets", "2").build(),
+                gridWorkbook());
+        Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+        mapper.setStore(store);
+        List<byte[]> whole = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            if (md.get("sheet_name").equals("second")) {
+                whole.add(data);
+            }
+        });
+        mapper.map(material);
+        List<List<String>> full = parseCSV(whole.get(0));
+        //
+        mapper.setProjection(SheetProjection.parse("sheets=second;columns=B:C;rows=2-3"));
+        List<String> sheetNames = new ArrayList<>();
+        List<byte[]> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.CSV, fileType);
+            sheetNames.add(md.get("sheet_name"));
+            outputs.add(data);
+        });
+        mapper.map(material);
+        //
+        assertEquals(1, sheetNames.size());
+        assertEquals("second", sheetNames.get(0));
+        // rows 2 and 3, columns B and C of the full conversion
+        List<List<String>> expected = new ArrayList<>();
+        for (int r = 1; r <= 2; r++) {
+            expected.add(full.get(r).subList(1, 3));
+        }
+        assertEquals(Arrays.asList(
+                Arrays.asList("second!B2", "second!C2"),
+                Arrays.asList("second!B3", "second!C3")), expected);
+        assertEquals(expected, parseCSV(outputs.get(0)));
+    }
+
+    @Test
+    public void test_projection_name_over_index() throws MaterialstoreException, IOException {
+        Material material = store.write(new JobName("test_projection_name_over_index"),
+                new JobTimestamp("20221018_100000"), FileType.XLSX,
+                Metadata.builder().put("sheets", "3").build(),
+                gridWorkbook("first", "0", "third"));
+        for (boolean streaming : new boolean[] { false, true }) {
+            Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+            mapper.setStreaming(streaming);
+            mapper.setStore(store);
+            List<String> sheetNames = new ArrayList<>();
+            mapper.setMappingListener((data, fileType, md) ->
+                    sheetNames.add(md.get("sheet_name")));
+            // "0" is the name of the second sheet, "2" is the name of none
+            mapper.setProjection(SheetProjection.parse("sheets=0,2"));
+            mapper.map(material);
+            assertEquals(Arrays.asList("0", "third"), sheetNames);
+        }
+    }
+
+    @Test
+    public void test_projection_invalid() throws MaterialstoreException, IOException {
+        Material material = store.write(new JobName("test_projection_invalid"),
+                new JobTimestamp("20221018_100000"), FileType.XLSX,
+                Metadata.builder().put("projection", "cells=A1").build(),
+                gridWorkbook());
+        Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+        mapper.setStore(store);
+        mapper.setMappingListener((data, fileType, md) -> {});
+        assertThrows(MaterialstoreException.class, () -> mapper.map(material));
+    }
+
+    @Test
+    public void test_diskSharedStrings() throws MaterialstoreException, IOException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.XLSX,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        List<byte[]> onHeap = new ArrayList<>();
+        Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+        mapper.setStreaming(true);
+        mapper.setSharedStringsThreshold(-1);
+        mapper.setStore(store);
+        mapper.setMappingListener((data, fileType, md) -> onHeap.add(data));
+        mapper.map(materialList.get(0));
+        // any sharedStrings.xml goes to disk
+        Path sharedStringsDir = outputDir.resolve("sharedStrings");
+        FileUtils.deleteDirectory(sharedStringsDir.toFile());
+        Files.createDirectories(sharedStringsDir);
+        List<byte[]> onDisk = new ArrayList<>();
+        mapper.setSharedStringsThreshold(0);
+        mapper.setSharedStringsDirectory(sharedStringsDir);
+        mapper.setMappingListener((data, fileType, md) -> onDisk.add(data));
+        mapper.map(materialList.get(0));
+        // the temporary files were made there, and are deleted
+        try (Stream<Path> files = Files.list(sharedStringsDir)) {
+            assertEquals(0, files.count());
+        }
+        //
+        assertTrue(onHeap.size() > 0);
+        assertEquals(onHeap.size(), onDisk.size());
+        for (int i = 0; i < onHeap.size(); i++) {
+            assertArrayEquals(onHeap.get(i), onDisk.get(i));
+        }
+    }
+
+    @Test
+    public void test_formulaMode() throws MaterialstoreException, IOException {
+        JobName jobName = new JobName("test_formulaMode");
+        JobTimestamp jobTimestamp = JobTimestamp.now();
+        Material notCached = store.write(jobName, jobTimestamp, FileType.XLSX,
+                Metadata.builder().put("cached", "false").build(),
+                sumWorkbook(false));
+        Material cached = store.write(jobName, jobTimestamp, FileType.XLSX,
+                Metadata.builder().put("cached", "true").build(),
+                sumWorkbook(true));
+        //
+        assertEquals("SUM(A1:A2)", lastCell(notCached, FormulaMode.FORMULA_TEXT, false));
+        assertEquals("5.0", lastCell(cached, FormulaMode.CACHED_VALUE, false));
+        assertEquals("", lastCell(notCached, FormulaMode.CACHED_VALUE, false));
+        assertEquals("5.0", lastCell(notCached, FormulaMode.EVALUATE, false));
+        // the streaming mode reads the cached result, formatted by the DataFormatter
+        assertEquals("5", lastCell(cached, FormulaMode.CACHED_VALUE, true));
+    }
+
+    @Test
+    public void test_columnarGrid() throws MaterialstoreException, IOException {
+        Material cached = store.write(new JobName("test_columnarGrid"),
+                JobTimestamp.now(), FileType.XLSX,
+                Metadata.builder().put("cached", "true").build(),
+                sumWorkbook(true));
+        Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+        mapper.setColumnarGrid(FileType.TXT);
+        mapper.setFormulaMode(FormulaMode.CACHED_VALUE);
+        mapper.setStore(store);
+        List<byte[]> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.TXT, fileType);
+            assertEquals(ColumnarGridWriter.FORMAT, md.get("format"));
+            outputs.add(data);
+        });
+        mapper.map(cached);
+        //
+        assertEquals(1, outputs.size());
+        ColumnarGridReader grid = ColumnarGridReader.of(outputs.get(0));
+        assertEquals(3, grid.getRowCount());
+        assertEquals(ColumnarGridReader.ColumnType.DOUBLE, grid.getColumnType(0));
+        assertEquals(5.0, grid.getDouble(2, 0));
+    }
+
+    @Test
+    public void test_csvPerSheet() throws MaterialstoreException, IOException {
+        Material material = store.write(new JobName("test_csvPerSheet"),
+                new JobTimestamp("20221018_100000"), FileType.XLSX,
+                Metadata.builder().put("sheets", "2").build(),
+                gridWorkbook());
+        for (FormulaMode formulaMode : FormulaMode.values()) {
+            Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+            mapper.setFormulaMode(formulaMode);
+            mapper.setStore(store);
+            List<byte[]> outputs = new ArrayList<>();
+            mapper.setMappingListener((data, fileType, md) -> outputs.add(data));
+            mapper.map(material);
+            //
+            assertEquals(2, outputs.size());
+            assertEquals(gridRows("first", 5, 4), parseCSV(outputs.get(0)));
+            assertEquals(gridRows("second", 5, 4), parseCSV(outputs.get(1)));
+        }
+    }
+
+    /**
+     * @return the sheets "first" and "second", each of 5 rows x 4 columns
+     * of strings such as "first!C2"
+     */
+    private static byte[] gridWorkbook() throws IOException {
+        return gridWorkbook("first", "second");
+    }
+
+    private static byte[] gridWorkbook(String... sheetNames) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            for (String sheetName : sheetNames) {
+                Sheet sheet = workbook.createSheet(sheetName);
+                List<List<String>> rows = gridRows(sheetName, 5, 4);
+                for (int r = 0; r < rows.size(); r++) {
+                    Row row = sheet.createRow(r);
+                    for (int c = 0; c < rows.get(r).size(); c++) {
+                        row.createCell(c).setCellValue(rows.get(r).get(c));
+                    }
+                }
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            workbook.write(baos);
+            return baos.toByteArray();
+        }
+    }
+
+    private static List<List<String>> gridRows(String sheetName, int rows, int columns) {
+        List<List<String>> grid = new ArrayList<>();
+        for (int r = 0; r < rows; r++) {
+            List<String> row = new ArrayList<>();
+            for (int c = 0; c < columns; c++) {
+                row.add(sheetName + "!" + (char) ('A' + c) + (r + 1));
+            }
+            grid.add(row);
+        }
+        return grid;
+    }
+
+    private static List<List<String>> parseCSV(byte[] csv) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        try (CSVParser parser = CSVFormat.EXCEL.parse(new InputStreamReader(
+                new ByteArrayInputStream(csv), StandardCharsets.UTF_8))) {
+            for (CSVRecord record : parser.getRecords()) {
+                List<String> row = new ArrayList<>();
+                for (String value : record) {
+                    row.add(value);
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return A1=2, A2=3, A3=SUM(A1:A2), with or without the result cached
+     */
+    private static byte[] sumWorkbook(boolean cacheResult) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("sum");
+            sheet.createRow(0).createCell(0).setCellValue(2);
+            sheet.createRow(1).createCell(0).setCellValue(3);
+            Cell sum = sheet.createRow(2).createCell(0);
+            sum.setCellFormula("SUM(A1:A2)");
+            if (cacheResult) {
+                workbook.getCreationHelper().createFormulaEvaluator()
+                        .evaluateFormulaCellEnum(sum);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            workbook.write(baos);
+            return baos.toByteArray();
+        }
+    }
+
+    private String lastCell(Material material, FormulaMode formulaMode,
+                            boolean streaming) throws MaterialstoreException, IOException {
+        Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+        mapper.setFormulaMode(formulaMode);
+        mapper.setStreaming(streaming);
+        mapper.setStore(store);
+        List<byte[]> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> outputs.add(data));
+        mapper.map(material);
+        assertEquals(1, outputs.size());
+        List<CSVRecord> records;
+        try (CSVParser parser = CSVFormat.EXCEL.parse(new InputStreamReader(
+                new ByteArrayInputStream(outputs.get(0)), StandardCharsets.UTF_8))) {
+            records = parser.getRecords();
+        }
+        assertEquals(3, records.size());
+        return records.get(2).get(0);
+    }
+
+    @Test
+    public void test_SheetProjection_parse() {
+        SheetProjection projection =
+                SheetProjection.parse("sheets=Summary,2; columns=B:D,AA; rows=2-10,200-");
+        assertTrue(projection.includesSheet(5, "Summary"));
+        assertTrue(projection.includesSheet(2, "Details"));
+        assertFalse(projection.includesSheet(3, "Details"));
+        SheetProjection resolved = projection.resolve(Arrays.asList("2", "Details", "Summary"));
+        assertTrue(resolved.includesSheet(0, "2"));
+        assertFalse(resolved.includesSheet(2, "Details"));
+        assertTrue(SheetProjection.parse("sheets=1").resolve(Arrays.asList("a", "b"))
+                .includesSheet(1, "b"));
+        assertFalse(projection.includesColumn(0));
+        assertTrue(projection.includesColumn(3));
+        assertTrue(projection.includesColumn(26));
+        assertFalse(projection.includesRow(0));
+        assertTrue(projection.includesRow(9));
+        assertFalse(projection.includesRow(10));
+        assertTrue(projection.includesRow(100000));
+        assertEquals(Integer.MAX_VALUE, projection.lastRow());
+        assertTrue(SheetProjection.parse("").isAll());
+        assertThrows(IllegalArgumentException.class,
+                () -> SheetProjection.parse("cells=A1"));
+    }
 }
@@ -0,0 +1,90 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InstrumentedMapperTest {
+
+    private static Path outputDir;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(InstrumentedMapperTest.class.getName());
+        Files.createDirectories(outputDir);
+        //
+        Path fixturesDir = projectDir.resolve("src/test/fixtures");
+        Path fixtureDir = fixturesDir.resolve("mapper");
+        FileUtils.copyDirectory(fixtureDir.toFile(), outputDir.toFile());
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_phases() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.PDF,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        HistogramMapperMetrics metrics = new HistogramMapperMetrics();
+        InstrumentedMapper mapper = new InstrumentedMapper(new PDF2ImageMapper(), metrics);
+        mapper.setStore(store);
+        int[] outputs = new int[1];
+        mapper.setMappingListener((data, fileType, md) -> outputs[0]++);
+        mapper.map(materialList.get(0));
+        //
+        Class<?> c = PDF2ImageMapper.class;
+        assertEquals(1, metrics.getPhase(c, MapperMetrics.Phase.TOTAL).getCount());
+        assertEquals(1, metrics.getPhase(c, MapperMetrics.Phase.READ).getCount());
+        assertEquals(outputs[0], metrics.getPhase(c, MapperMetrics.Phase.PARSE).getCount());
+        assertEquals(outputs[0], metrics.getPhase(c, MapperMetrics.Phase.ENCODE).getCount());
+        assertEquals(outputs[0], metrics.getPhase(c, MapperMetrics.Phase.EMIT).getCount());
+        assertEquals(outputs[0], metrics.getUnits(c, MapperMetrics.UNIT_PAGES).getMax());
+        assertTrue(metrics.getInputBytes(c) > 0);
+        assertTrue(metrics.getOutputBytes(c) > 0);
+    }
+
+    @Test
+    public void test_LatencyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            h.record(v);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000, h.getMax());
+        assertEquals(500.5, h.getMean(), 0.001);
+        long p50 = h.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 < 1024, "p50=" + p50);
+        assertEquals(1000, h.getPercentile(100));
+    }
+}
@@ -0,0 +1,68 @@
+package com.kazurayam.materialstore.mapper;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class JfrMapperMetricsTest {
+
+    private static Path outputDir;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(JfrMapperMetricsTest.class.getName());
+        Files.createDirectories(outputDir);
+    }
+
+    @Test
+    public void test_events() throws IOException {
+        Path file = outputDir.resolve("test_events.jfr");
+        HistogramMapperMetrics histogram = new HistogramMapperMetrics();
+        JfrMapperMetrics metrics = new JfrMapperMetrics(histogram);
+        try (Recording recording = new Recording()) {
+            recording.enable(JfrMapperMetrics.PhaseEvent.class);
+            recording.enable(JfrMapperMetrics.BytesEvent.class);
+            recording.start();
+            metrics.recordPhase(PDF2ImageMapper.class, MapperMetrics.Phase.PARSE, 1234L);
+            metrics.recordInputBytes(PDF2ImageMapper.class, 5678L);
+            metrics.recordOutputBytes(PDF2ImageMapper.class, 91L);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> phases = new ArrayList<>();
+        List<RecordedEvent> bytes = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            String name = event.getEventType().getName();
+            if (name.equals("com.kazurayam.materialstore.mapper.Phase")) {
+                phases.add(event);
+            } else if (name.equals("com.kazurayam.materialstore.mapper.Bytes")) {
+                bytes.add(event);
+            }
+        }
+        assertEquals(1, phases.size());
+        assertEquals(PDF2ImageMapper.class.getName(), phases.get(0).getString("mapper"));
+        assertEquals("PARSE", phases.get(0).getString("phase"));
+        assertEquals(1234L, phases.get(0).getLong("nanos"));
+        assertEquals(2, bytes.size());
+        assertEquals("input", bytes.get(0).getString("direction"));
+        assertEquals(5678L, bytes.get(0).getLong("bytes"));
+        assertEquals("output", bytes.get(1).getString("direction"));
+        assertEquals(91L, bytes.get(1).getLong("bytes"));
+        // passed on to the delegate as well
+        assertEquals(1, histogram.getPhase(PDF2ImageMapper.class,
+                MapperMetrics.Phase.PARSE).getCount());
+    }
+}
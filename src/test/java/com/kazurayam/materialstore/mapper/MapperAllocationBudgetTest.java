@@ -0,0 +1,348 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.map.Mapper;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Guards against memory regressions of the mappers.
+ *
+ * Each test converts a fixed fixture and fails if the bytes allocated by the
+ * converting thread, or the peak of the heap used during the conversion,
+ * exceed a budget of "a fixed floor + so many bytes per MB of input". The
+ * peak is taken over the heap pools other than eden, so it counts the
+ * objects retained long enough to survive a GC.
+ *
+ * If src/test/fixtures/allocation-baseline.properties has the numbers
+ * measured for a test, its budgets are tightened to 1.5 times the bytes
+ * allocated and 2 times the peak measured, so that one more copy of the
+ * input or the output of a conversion trips them. To measure, run
+ * <pre>
+ * RECORD_ALLOCATION_BASELINE=true ./gradlew test --tests '*MapperAllocationBudgetTest'
+ * </pre>
+ * which writes build/tmp/testOutput/&lt;this class&gt;/allocation-baseline.properties
+ * instead of checking the budgets; copy it over the one in src/test/fixtures
+ * and commit it. Record on the JDK the build uses, as the numbers depend on it.
+ *
+ * The mappers run on the calling thread (no workers) so that
+ * ThreadMXBean#getThreadAllocatedBytes sees all the allocations.
+ */
+public class MapperAllocationBudgetTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    private static final double ALLOCATED_FACTOR = 1.5;
+    private static final double PEAK_FACTOR = 2.0;
+    // the peak of the old generation moves by a few MB with the timing of GCs
+    private static final long PEAK_SLACK = 4 * MB;
+
+    private static final String RECORD_ENV = "RECORD_ALLOCATION_BASELINE";
+
+    private static Path outputDir;
+    private static Path baselineFile;
+    private static Path recordedFile;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(MapperAllocationBudgetTest.class.getName());
+        Files.createDirectories(outputDir);
+        //
+        Path fixturesDir = projectDir.resolve("src/test/fixtures");
+        Path fixtureDir = fixturesDir.resolve("mapper");
+        FileUtils.copyDirectory(fixtureDir.toFile(), outputDir.toFile());
+        baselineFile = fixturesDir.resolve("allocation-baseline.properties");
+        recordedFile = outputDir.resolve("allocation-baseline.properties");
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_Excel2CSVMapperPOI3() throws MaterialstoreException, IOException {
+        assertWithinBudget("Excel2CSVMapperPOI3", Excel2CSVMapperPOI3::new,
+                select(FileType.XLSX),
+                new Budget(64 * MB, 800 * MB, 32 * MB, 400 * MB));
+    }
+
+    @Test
+    public void test_Excel2CSVMapperPOI3_streaming() throws MaterialstoreException, IOException {
+        assertWithinBudget("Excel2CSVMapperPOI3.streaming", () -> {
+                    Excel2CSVMapperPOI3 mapper = new Excel2CSVMapperPOI3();
+                    mapper.setStreaming(true);
+                    return mapper;
+                }, select(FileType.XLSX),
+                new Budget(32 * MB, 300 * MB, 16 * MB, 100 * MB));
+    }
+
+    @Test
+    public void test_Excel2CSVMapperPOI5() throws MaterialstoreException, IOException {
+        assertWithinBudget("Excel2CSVMapperPOI5", Excel2CSVMapperPOI5::new,
+                select(FileType.XLSX),
+                new Budget(64 * MB, 600 * MB, 32 * MB, 300 * MB));
+    }
+
+    @Test
+    public void test_Excel2CSVMapperPOI5_streaming() throws MaterialstoreException, IOException {
+        assertWithinBudget("Excel2CSVMapperPOI5.streaming", () -> {
+                    Excel2CSVMapperPOI5 mapper = new Excel2CSVMapperPOI5();
+                    mapper.setStreaming(true);
+                    return mapper;
+                }, select(FileType.XLSX),
+                new Budget(32 * MB, 300 * MB, 16 * MB, 100 * MB));
+    }
+
+    @Test
+    public void test_PDF2ImageMapper() throws MaterialstoreException, IOException {
+        // 96 DPI keeps a page under 1 MB of raster
+        assertWithinBudget("PDF2ImageMapper", () -> new PDF2ImageMapper(
+                        RenderProfile.builder().dpi(96).build()),
+                select(FileType.PDF),
+                new Budget(128 * MB, 1000 * MB, 64 * MB, 200 * MB));
+    }
+
+    @Test
+    public void test_PDF2HTMLMapper() throws MaterialstoreException, IOException {
+        assertWithinBudget("PDF2HTMLMapper", PDF2HTMLMapper::new, select(FileType.PDF),
+                new Budget(128 * MB, 1000 * MB, 64 * MB, 300 * MB));
+    }
+
+    @Test
+    public void test_RSS2ExcelMapper() throws MaterialstoreException, IOException {
+        assertWithinBudget("RSS2ExcelMapper", ItemsMapper::new, rssFixture(2000),
+                new Budget(64 * MB, 200 * MB, 32 * MB, 100 * MB));
+    }
+
+    private Material select(FileType fileType) throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        MaterialList materialList = store.select(new JobName("NISA"),
+                new JobTimestamp("20220226_214458"),
+                fileType,
+                QueryOnMetadata.builder(metadata).build());
+        assertTrue(materialList.size() > 0);
+        return materialList.get(0);
+    }
+
+    private Material rssFixture(int items) throws MaterialstoreException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<rss version=\"2.0\"><channel><title>fixture</title>");
+        sb.append("<link>http://example.com/</link><description>fixture</description>\n");
+        for (int i = 0; i < items; i++) {
+            sb.append("<item><title>Item ").append(i).append("</title>")
+                    .append("<link>http://example.com/items/").append(i).append("</link>")
+                    .append("<description>Description of item ").append(i)
+                    .append("</description></item>\n");
+        }
+        sb.append("</channel></rss>\n");
+        return store.write(new JobName("MapperAllocationBudgetTest"),
+                new JobTimestamp("20220301_000000"), FileType.XML,
+                Metadata.builder().put("items", Integer.toString(items)).build(),
+                sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * runs the conversion once to warm up (class loading, static caches),
+     * then measures the second run against the budget, tightened by the
+     * baseline of the name if recorded
+     */
+    private void assertWithinBudget(String name, Supplier<Mapper> mapperFactory,
+                                    Material material, Budget budget)
+            throws MaterialstoreException, IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        Assumptions.assumeTrue(threads != null,
+                "com.sun.management.ThreadMXBean is not available");
+        File file = MaterialFiles.toFile(material);
+        assertTrue(file != null);
+        //
+        convert(mapperFactory.get(), material);
+        //
+        System.gc();
+        long baseline = heapUsed();
+        resetPeaks();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        convert(mapperFactory.get(), material);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long peak = Math.max(heapPeak() - baseline, 0);
+        String measured = String.format("%s on %s of %,d bytes: allocated %,d bytes, peak heap grew by %,d bytes",
+                name, material.getFileType(), file.length(), allocated, peak);
+        //
+        if (Boolean.parseBoolean(System.getenv(RECORD_ENV))) {
+            recordBaseline(name, allocated, peak);
+            return;
+        }
+        double inputMB = (double) file.length() / MB;
+        long allocatedBudget = budget.allocatedFloor + (long) (budget.allocatedPerMB * inputMB);
+        long peakBudget = budget.peakFloor + (long) (budget.peakPerMB * inputMB);
+        Properties recorded = loadBaseline(baselineFile);
+        String recordedAllocated = recorded.getProperty(name + ".allocated");
+        String recordedPeak = recorded.getProperty(name + ".peak");
+        if (recordedAllocated != null && recordedPeak != null) {
+            allocatedBudget = Math.min(allocatedBudget,
+                    (long) (ALLOCATED_FACTOR * Long.parseLong(recordedAllocated)));
+            peakBudget = Math.min(peakBudget,
+                    (long) (PEAK_FACTOR * Long.parseLong(recordedPeak)) + PEAK_SLACK);
+        }
+        assertTrue(allocated <= allocatedBudget,
+                String.format("%s; over the budget of %,d bytes allocated",
+                        measured, allocatedBudget));
+        assertTrue(peak <= peakBudget,
+                String.format("%s; over the budget of %,d bytes of peak heap",
+                        measured, peakBudget));
+    }
+
+    private static Properties loadBaseline(Path file) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        return properties;
+    }
+
+    private static synchronized void recordBaseline(String name, long allocated, long peak)
+            throws IOException {
+        Properties properties = loadBaseline(recordedFile);
+        properties.setProperty(name + ".allocated", Long.toString(allocated));
+        properties.setProperty(name + ".peak", Long.toString(peak));
+        try (Writer writer = Files.newBufferedWriter(recordedFile, StandardCharsets.UTF_8)) {
+            properties.store(writer, "measured by MapperAllocationBudgetTest with "
+                    + RECORD_ENV + "=true, in bytes");
+        }
+    }
+
+    private void convert(Mapper mapper, Material material) throws MaterialstoreException {
+        long[] outputBytes = new long[1];
+        mapper.setStore(store);
+        mapper.setMappingListener((data, fileType, metadata) -> outputBytes[0] += data.length);
+        mapper.map(material);
+        assertTrue(outputBytes[0] > 0);
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * the heap pools except eden, i.e. where the objects which survived
+     * a GC live; the peak of eden tells how much was allocated, not retained
+     */
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && !pool.getName().contains("Eden")) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static long heapUsed() {
+        long sum = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            sum += pool.getUsage().getUsed();
+        }
+        return sum;
+    }
+
+    private static void resetPeaks() {
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * the sum of the peaks of the heap pools; an upper bound of the peak
+     * of the heap as the pools may peak at different moments
+     */
+    private static long heapPeak() {
+        long sum = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            sum += pool.getPeakUsage().getUsed();
+        }
+        return sum;
+    }
+
+    /**
+     * the bytes a conversion may allocate, and grow the peak of the heap by,
+     * as a floor plus so many bytes per MB of input
+     */
+    private static final class Budget {
+        private final long allocatedFloor;
+        private final long allocatedPerMB;
+        private final long peakFloor;
+        private final long peakPerMB;
+        Budget(long allocatedFloor, long allocatedPerMB, long peakFloor, long peakPerMB) {
+            this.allocatedFloor = allocatedFloor;
+            this.allocatedPerMB = allocatedPerMB;
+            this.peakFloor = peakFloor;
+            this.peakPerMB = peakPerMB;
+        }
+    }
+
+    /**
+     * maps the title, link and description of each item, as read by
+     * StreamingFeedReader, into a row
+     */
+    private static final class ItemsMapper extends RSS2ExcelMapper {
+        @Override
+        String getSheetName() {
+            return "items";
+        }
+        @Override
+        List<Column> getColumns() {
+            return Arrays.asList(new Column("title", 6000),
+                    new Column("link", 10000),
+                    new Column("description", 20000));
+        }
+    }
+}
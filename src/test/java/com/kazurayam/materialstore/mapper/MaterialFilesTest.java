@@ -0,0 +1,178 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.map.Mapper;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Each mapper gives the same output whether it reads the file in the store
+ * or the byte[] of Store#read(Material).
+ */
+public class MaterialFilesTest {
+
+    private static Path outputDir;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(MaterialFilesTest.class.getName());
+        Files.createDirectories(outputDir);
+        //
+        Path fixturesDir = projectDir.resolve("src/test/fixtures");
+        Path fixtureDir = fixturesDir.resolve("mapper");
+        FileUtils.copyDirectory(fixtureDir.toFile(), outputDir.toFile());
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_toFile() throws MaterialstoreException {
+        Material material = select(FileType.PDF);
+        assertNotNull(MaterialFiles.toFile(material));
+        MaterialFiles.setFilesEnabled(false);
+        try {
+            assertNull(MaterialFiles.toFile(material));
+        } finally {
+            MaterialFiles.setFilesEnabled(true);
+        }
+    }
+
+    @Test
+    public void test_Excel2CSVMapperPOI3() throws MaterialstoreException {
+        Material material = select(FileType.XLSX);
+        assertSameOutput(new Excel2CSVMapperPOI3(), material);
+        Excel2CSVMapperPOI3 streaming = new Excel2CSVMapperPOI3();
+        streaming.setStreaming(true);
+        assertSameOutput(streaming, material);
+    }
+
+    @Test
+    public void test_Excel2CSVMapperPOI5() throws MaterialstoreException {
+        Material material = select(FileType.XLSX);
+        assertSameOutput(new Excel2CSVMapperPOI5(), material);
+        Excel2CSVMapperPOI5 streaming = new Excel2CSVMapperPOI5();
+        streaming.setStreaming(true);
+        assertSameOutput(streaming, material);
+    }
+
+    @Test
+    public void test_PDF2ImageMapper() throws MaterialstoreException {
+        RenderProfile profile = RenderProfile.builder()
+                .dpi(72)
+                .firstPages(2)
+                .build();
+        assertSameOutput(new PDF2ImageMapper(profile), select(FileType.PDF));
+    }
+
+    @Test
+    public void test_PDF2TextMapper() throws MaterialstoreException {
+        Material material = select(FileType.PDF);
+        assertSameOutput(new PDF2TextMapper(), material);
+        // each worker loads the PDF on its own
+        PDF2TextMapper perPage = new PDF2TextMapper();
+        perPage.setPerPage(true);
+        perPage.setWorkers(2);
+        assertSameOutput(perPage, material);
+    }
+
+    @Test
+    public void test_PDF2HTMLMapper() throws MaterialstoreException {
+        Material material = select(FileType.PDF);
+        assertSameOutput(new PDF2HTMLMapper(), material);
+        PDF2HTMLMapper perPage = new PDF2HTMLMapper();
+        perPage.setPerPage(true);
+        perPage.setWorkers(2);
+        assertSameOutput(perPage, material);
+    }
+
+    @Test
+    public void test_RSS2CSVMapper() throws MaterialstoreException {
+        String rss = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<rss version=\"2.0\"><channel><title>fixture</title>"
+                + "<item><title>First</title><link>http://example.com/1</link></item>"
+                + "<item><title>Second</title><link>http://example.com/2</link></item>"
+                + "</channel></rss>\n";
+        Material material = store.write(new JobName("MaterialFilesTest"),
+                new JobTimestamp("20221018_120000"), FileType.XML,
+                Metadata.builder().put("feed", "rss").build(),
+                rss.getBytes(StandardCharsets.UTF_8));
+        assertSameOutput(new RSS2CSVMapper() {
+            @Override
+            List<Column> getColumns() {
+                return Arrays.asList(new Column("title", 6000), new Column("link", 10000));
+            }
+        }, material);
+    }
+
+    private Material select(FileType fileType) throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        MaterialList materialList = store.select(new JobName("NISA"),
+                new JobTimestamp("20220226_214458"),
+                fileType,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        return materialList.get(0);
+    }
+
+    /**
+     * maps the Material from its file, then from Store#read(Material), and
+     * compares the outputs
+     */
+    private void assertSameOutput(Mapper mapper, Material material)
+            throws MaterialstoreException {
+        mapper.setStore(store);
+        List<byte[]> fromFile = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> fromFile.add(data));
+        mapper.map(material);
+        //
+        List<byte[]> fromBytes = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> fromBytes.add(data));
+        MaterialFiles.setFilesEnabled(false);
+        try {
+            mapper.map(material);
+        } finally {
+            MaterialFiles.setFilesEnabled(true);
+        }
+        //
+        assertTrue(fromFile.size() > 0);
+        assertEquals(fromFile.size(), fromBytes.size());
+        for (int i = 0; i < fromFile.size(); i++) {
+            assertArrayEquals(fromFile.get(i), fromBytes.get(i),
+                    mapper.getClass().getName() + " output " + i);
+        }
+    }
+}
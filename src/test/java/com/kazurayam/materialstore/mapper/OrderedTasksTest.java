@@ -0,0 +1,109 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OrderedTasksTest {
+
+    @Test
+    public void test_emitInOrder() throws MaterialstoreException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Integer> results = new ArrayList<>();
+            OrderedTasks.emitInOrder(submissions(executor, null, 20, -1), 4,
+                    results::add);
+            assertEquals(20, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i, results.get(i).intValue());
+            }
+        } finally {
+            OrderedTasks.shutdown(executor);
+        }
+    }
+
+    @Test
+    public void test_tracker_waits_for_the_running_tasks() {
+        // the executor of a caller, which is not shut down
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            OrderedTasks.Tracker tracker = new OrderedTasks.Tracker();
+            AtomicInteger started = new AtomicInteger();
+            AtomicInteger finished = new AtomicInteger();
+            Iterator<Future<Integer>> submissions =
+                    submissions(executor, tracker, 20, 0, started, finished);
+            assertThrows(MaterialstoreException.class, () -> {
+                try {
+                    OrderedTasks.emitInOrder(submissions, 4, result -> {});
+                } finally {
+                    tracker.close();
+                }
+            });
+            // the other tasks in flight have stopped, not only been cancelled
+            assertTrue(started.get() > 0);
+            assertEquals(started.get(), finished.get());
+        } finally {
+            OrderedTasks.shutdown(executor);
+        }
+    }
+
+    private static Iterator<Future<Integer>> submissions(
+            ExecutorService executor, OrderedTasks.Tracker tracker,
+            int count, int failing) {
+        return submissions(executor, tracker, count, failing,
+                new AtomicInteger(), new AtomicInteger());
+    }
+
+    /**
+     * tasks which sleep a while, ignoring interrupts as a parser would, and
+     * return their index; the task of the index <code>failing</code> throws
+     */
+    private static Iterator<Future<Integer>> submissions(
+            ExecutorService executor, OrderedTasks.Tracker tracker,
+            int count, int failing,
+            AtomicInteger started, AtomicInteger finished) {
+        return new Iterator<Future<Integer>>() {
+            private int i = 0;
+            @Override
+            public boolean hasNext() {
+                return i < count;
+            }
+            @Override
+            public Future<Integer> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int index = i++;
+                Callable<Integer> task = () -> {
+                    started.incrementAndGet();
+                    try {
+                        if (index == failing) {
+                            throw new MaterialstoreException("task " + index + " failed");
+                        }
+                        long end = System.nanoTime() + 50_000_000L;
+                        while (System.nanoTime() < end) {
+                            Thread.yield();
+                        }
+                        return index;
+                    } finally {
+                        finished.incrementAndGet();
+                    }
+                };
+                return executor.submit(tracker != null ? tracker.track(task) : task);
+            }
+        };
+    }
+}
@@ -19,6 +19,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -70,5 +73,80 @@ public class PDF2HTMLMapperTest {
         assertEquals(FileType.HTML, result.get(0).getFileType());
     }
 
+    @Test
+    public void test_mainMemoryBudget() throws MaterialstoreException, IOException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.PDF,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        List<byte[]> unbounded = new ArrayList<>();
+        PDF2HTMLMapper mapper = new PDF2HTMLMapper();
+        mapper.setStore(store);
+        mapper.setMappingListener((data, fileType, md) -> unbounded.add(data));
+        mapper.map(materialList.get(0));
+        // a tiny budget forces PDFBox to spill its scratch data
+        Path tempDir = Files.createDirectories(outputDir.resolve("spill"));
+        List<byte[]> bounded = new ArrayList<>();
+        mapper.setMainMemoryBudget(16 * 1024);
+        mapper.setTempDirectory(tempDir);
+        mapper.setMappingListener((data, fileType, md) -> bounded.add(data));
+        mapper.map(materialList.get(0));
+        //
+        assertEquals(1, bounded.size());
+        assertEquals(unbounded.get(0).length, bounded.get(0).length);
+        // the budget is shared by the workers of the per-page mode
+        List<byte[]> unboundedPages = new ArrayList<>();
+        PDF2HTMLMapper perPage = new PDF2HTMLMapper();
+        perPage.setPerPage(true);
+        perPage.setStore(store);
+        perPage.setMappingListener((data, fileType, md) -> unboundedPages.add(data));
+        perPage.map(materialList.get(0));
+        List<byte[]> boundedPages = new ArrayList<>();
+        perPage.setWorkers(2);
+        perPage.setMainMemoryBudget(16 * 1024);
+        perPage.setTempDirectory(tempDir);
+        perPage.setMappingListener((data, fileType, md) -> boundedPages.add(data));
+        perPage.map(materialList.get(0));
+        assertEquals(unboundedPages.size(), boundedPages.size());
+        for (int i = 0; i < unboundedPages.size(); i++) {
+            assertEquals(unboundedPages.get(i).length, boundedPages.get(i).length);
+        }
+        try (Stream<Path> leftovers = Files.list(tempDir)) {
+            assertEquals(0, leftovers.count());
+        }
+    }
 
+    @Test
+    public void test_perPage() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.PDF,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        PDF2HTMLMapper mapper = new PDF2HTMLMapper();
+        mapper.setPerPage(true);
+        mapper.setWorkers(4);
+        mapper.setStore(store);
+        List<String> pages = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.HTML, fileType);
+            assertTrue(data.length > 0);
+            pages.add(md.get("page"));
+        });
+        mapper.map(materialList.get(0));
+        //
+        assertTrue(pages.size() > 0);
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals(Integer.toString(i + 1), pages.get(i));
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.kazurayam.materialstore.mapper;
 import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialList;
 import com.kazurayam.materialstore.core.MaterialstoreException;
 import com.kazurayam.materialstore.core.Metadata;
@@ -11,16 +12,32 @@ import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.Stores;
 import com.kazurayam.materialstore.map.MappedResultSerializer;
 import org.apache.commons.io.FileUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.blend.BlendMode;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.rendering.ImageType;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class PDF2ImageMapperTest {
@@ -70,4 +87,250 @@ public class PDF2ImageMapperTest {
         assertTrue(result.size() > 0);
         assertEquals(FileType.PNG, result.get(0).getFileType());
     }
+
+    @Test
+    public void test_workers() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList =
+                store.select(jobName,
+                        new JobTimestamp("20220226_214458"),
+                        FileType.PDF,
+                        QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        PDF2ImageMapper mapper = new PDF2ImageMapper();
+        mapper.setWorkers(4);
+        mapper.setStore(store);
+        List<String> pages = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.PNG, fileType);
+            pages.add(md.get("page"));
+        });
+        mapper.map(materialList.get(0));
+        //
+        assertTrue(pages.size() > 0);
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals(Integer.toString(i + 1), pages.get(i));
+        }
+    }
+
+    @Test
+    public void test_renderProfile() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList =
+                store.select(jobName,
+                        new JobTimestamp("20220226_214458"),
+                        FileType.PDF,
+                        QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        RenderProfile profile = RenderProfile.builder()
+                .dpi(96)
+                .imageType(ImageType.GRAY)
+                .firstPages(1)
+                .build();
+        PDF2ImageMapper mapper = new PDF2ImageMapper(profile);
+        mapper.setStore(store);
+        List<Metadata> emitted = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.PNG, fileType);
+            emitted.add(md);
+        });
+        mapper.map(materialList.get(0));
+        //
+        assertEquals(1, emitted.size());
+        assertEquals("1", emitted.get(0).get("page"));
+        assertEquals("96", emitted.get(0).get("render_dpi"));
+        assertEquals("GRAY", emitted.get(0).get("render_image_type"));
+        assertEquals("1", emitted.get(0).get("render_pages"));
+    }
+
+    @Test
+    public void test_renderProfile_rejects_alpha_without_PNG() {
+        for (ImageFormat imageFormat : new ImageFormat[] { ImageFormat.JPEG, ImageFormat.BMP }) {
+            assertThrows(IllegalArgumentException.class, () ->
+                    RenderProfile.builder()
+                            .imageType(ImageType.ARGB)
+                            .imageFormat(imageFormat)
+                            .build());
+        }
+        RenderProfile.builder()
+                .imageType(ImageType.ARGB)
+                .imageFormat(ImageFormat.PNG)
+                .build();
+    }
+
+    @Test
+    public void test_tiled() throws MaterialstoreException, IOException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList =
+                store.select(jobName,
+                        new JobTimestamp("20220226_214458"),
+                        FileType.PDF,
+                        QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        for (ImageType imageType : ImageType.values()) {
+            RenderProfile profile = RenderProfile.builder()
+                    .dpi(96)
+                    .imageType(imageType)
+                    .firstPages(2)
+                    .build();
+            assertTiledMatchesWhole(profile, materialList.get(0));
+        }
+    }
+
+    @Test
+    public void test_tiled_blendMode() throws MaterialstoreException, IOException {
+        // overlapping rectangles multiplied together, which PDFRenderer
+        // renders on a transparent canvas and then flattens onto white
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A6);
+            document.addPage(page);
+            PDExtendedGraphicsState multiply = new PDExtendedGraphicsState();
+            multiply.setBlendMode(BlendMode.MULTIPLY);
+            try (PDPageContentStream contents = new PDPageContentStream(document, page)) {
+                contents.setNonStrokingColor(Color.CYAN);
+                contents.addRect(20, 20, 160, 300);
+                contents.fill();
+                contents.setGraphicsStateParameters(multiply);
+                contents.setNonStrokingColor(Color.YELLOW);
+                contents.addRect(100, 100, 160, 300);
+                contents.fill();
+            }
+            document.save(baos);
+        }
+        Material material = store.write(new JobName("test_tiled_blendMode"),
+                new JobTimestamp("20221018_120000"), FileType.PDF,
+                Metadata.builder().put("blend", "multiply").build(),
+                baos.toByteArray());
+        for (ImageType imageType : ImageType.values()) {
+            RenderProfile profile = RenderProfile.builder()
+                    .dpi(150)
+                    .imageType(imageType)
+                    .build();
+            assertTiledMatchesWhole(profile, material);
+        }
+    }
+
+    /**
+     * renders the PDF whole and then in strips of 100 rows, and asserts that
+     * the pages differ in no more than 0.1% of the pixels, as anti-aliasing
+     * may differ at the seams of the strips
+     */
+    private void assertTiledMatchesWhole(RenderProfile profile, Material pdf)
+            throws MaterialstoreException, IOException {
+        PDF2ImageMapper mapper = new PDF2ImageMapper(profile);
+        mapper.setImageEncoder(PngEncoder.balanced());
+        mapper.setStore(store);
+        List<byte[]> whole = new ArrayList<>();
+        mapper.setTilingThreshold(-1);
+        mapper.setMappingListener((data, fileType, md) -> whole.add(data));
+        mapper.map(pdf);
+        // every page is tiled, in strips of 100 rows
+        List<byte[]> tiled = new ArrayList<>();
+        mapper.setTilingThreshold(0);
+        mapper.setStripHeight(100);
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.PNG, fileType);
+            tiled.add(data);
+        });
+        mapper.map(pdf);
+        //
+        assertTrue(whole.size() > 0);
+        assertEquals(whole.size(), tiled.size());
+        for (int i = 0; i < whole.size(); i++) {
+            BufferedImage expected = ImageIO.read(new ByteArrayInputStream(whole.get(i)));
+            BufferedImage actual = ImageIO.read(new ByteArrayInputStream(tiled.get(i)));
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            long differing = 0;
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                        differing++;
+                    }
+                }
+            }
+            long pixels = (long) expected.getWidth() * expected.getHeight();
+            assertTrue(differing <= pixels / 1000,
+                    differing + " of " + pixels + " pixels differ on page " + (i + 1)
+                            + " as " + profile);
+        }
+    }
+
+    @Test
+    public void test_perceptualHashAndThumbnail() throws MaterialstoreException, IOException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList =
+                store.select(jobName,
+                        new JobTimestamp("20220226_214458"),
+                        FileType.PDF,
+                        QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        RenderProfile profile = RenderProfile.builder()
+                .dpi(96)
+                .firstPages(2)
+                .build();
+        PDF2ImageMapper mapper = new PDF2ImageMapper(profile);
+        mapper.setImageEncoder(PngEncoder.balanced());
+        mapper.setPerceptualHash(true);
+        mapper.setThumbnailWidth(64);
+        mapper.setStore(store);
+        List<byte[]> pages = new ArrayList<>();
+        List<Metadata> pageMetadata = new ArrayList<>();
+        List<byte[]> thumbnails = new ArrayList<>();
+        List<Metadata> thumbnailMetadata = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.PNG, fileType);
+            if (md.containsKey("render_thumbnail")) {
+                thumbnails.add(data);
+                thumbnailMetadata.add(md);
+            } else {
+                pages.add(data);
+                pageMetadata.add(md);
+            }
+        });
+        mapper.map(materialList.get(0));
+        // the same hashes when the pages are tiled
+        List<String> tiledHashes = new ArrayList<>();
+        mapper.setTilingThreshold(0);
+        mapper.setStripHeight(100);
+        mapper.setWorkers(2);
+        mapper.setMappingListener((data, fileType, md) -> {
+            if (!md.containsKey("render_thumbnail")) {
+                tiledHashes.add(md.get("render_dhash"));
+            }
+        });
+        mapper.map(materialList.get(0));
+        //
+        assertEquals(2, pages.size());
+        assertEquals(2, thumbnails.size());
+        for (int i = 0; i < pages.size(); i++) {
+            String dhash = pageMetadata.get(i).get("render_dhash");
+            BufferedImage page = ImageIO.read(new ByteArrayInputStream(pages.get(i)));
+            assertEquals(PerceptualHash.toHex(PerceptualHash.dHash(page)), dhash);
+            assertTrue(PerceptualHash.distance(PerceptualHash.parseHex(dhash),
+                    PerceptualHash.parseHex(tiledHashes.get(i))) <= 2);
+            //
+            BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(thumbnails.get(i)));
+            assertEquals(64, thumbnail.getWidth());
+            assertEquals(thumbnail.getWidth() + "x" + thumbnail.getHeight(),
+                    thumbnailMetadata.get(i).get("render_thumbnail"));
+            assertEquals(pageMetadata.get(i).get("page"),
+                    thumbnailMetadata.get(i).get("thumbnail_of_page"));
+            assertFalse(thumbnailMetadata.get(i).containsKey("page"));
+            assertEquals(dhash, thumbnailMetadata.get(i).get("render_dhash"));
+        }
+    }
 }
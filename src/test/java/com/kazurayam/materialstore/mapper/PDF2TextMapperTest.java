@@ -0,0 +1,109 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialList;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.QueryOnMetadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PDF2TextMapperTest {
+
+    private static Path outputDir;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(PDF2TextMapperTest.class.getName());
+        Files.createDirectories(outputDir);
+        //
+        Path fixturesDir = projectDir.resolve("src/test/fixtures");
+        Path fixtureDir = fixturesDir.resolve("mapper");
+        FileUtils.copyDirectory(fixtureDir.toFile(), outputDir.toFile());
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_perPage() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.PDF,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        List<String> sequential = new ArrayList<>();
+        PDF2TextMapper mapper = new PDF2TextMapper();
+        mapper.setStore(store);
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.TXT, fileType);
+            assertEquals(Integer.toString(sequential.size() + 1), md.get("page"));
+            sequential.add(new String(data, StandardCharsets.UTF_8));
+        });
+        mapper.map(materialList.get(0));
+        // the same text, in the same order, when the pages are extracted concurrently
+        List<String> concurrent = new ArrayList<>();
+        mapper.setWorkers(4);
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(Integer.toString(concurrent.size() + 1), md.get("page"));
+            concurrent.add(new String(data, StandardCharsets.UTF_8));
+        });
+        mapper.map(materialList.get(0));
+        //
+        assertTrue(sequential.size() > 0);
+        assertEquals(sequential, concurrent);
+    }
+
+    @Test
+    public void test_wholeDocument() throws MaterialstoreException {
+        Metadata metadata =
+                Metadata.builder().put("URL.host","www.fsa.go.jp").build();
+        JobName jobName = new JobName("NISA");
+        MaterialList materialList = store.select(jobName,
+                new JobTimestamp("20220226_214458"),
+                FileType.PDF,
+                QueryOnMetadata.builder(metadata).build());
+        assertEquals(1, materialList.size());
+        //
+        PDF2TextMapper mapper = new PDF2TextMapper();
+        mapper.setPerPage(false);
+        mapper.setStore(store);
+        List<byte[]> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, md) -> {
+            assertEquals(FileType.TXT, fileType);
+            assertTrue(!md.containsKey("page"));
+            outputs.add(data);
+        });
+        mapper.map(materialList.get(0));
+        //
+        assertEquals(1, outputs.size());
+        assertTrue(outputs.get(0).length > 0);
+    }
+}
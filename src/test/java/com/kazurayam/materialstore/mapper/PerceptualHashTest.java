@@ -0,0 +1,85 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PerceptualHashTest {
+
+    @Test
+    public void test_dHash() {
+        BufferedImage page = page(600, 800, 0);
+        long hash = PerceptualHash.dHash(page);
+        // the same picture in another size and color model
+        BufferedImage smaller = page(300, 400, 0);
+        BufferedImage gray = new BufferedImage(600, 800, BufferedImage.TYPE_BYTE_GRAY);
+        gray.createGraphics().drawImage(page, 0, 0, null);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(smaller)) <= 4);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(gray)) <= 4);
+        // the same layout shifted down
+        BufferedImage shifted = page(600, 800, 200);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(shifted)) > 10);
+    }
+
+    @Test
+    public void test_strips() {
+        BufferedImage page = page(600, 800, 0);
+        AreaAverager grid = PerceptualHash.newGrid(600, 800);
+        for (int y0 = 0; y0 < 800; y0 += 300) {
+            grid.add(page.getSubimage(0, y0, 600, Math.min(300, 800 - y0)), y0);
+        }
+        assertEquals(PerceptualHash.dHash(page), PerceptualHash.dHash(grid));
+    }
+
+    @Test
+    public void test_hex() {
+        long hash = 0x8f00_0000_0000_0a01L;
+        assertEquals("8f00000000000a01", PerceptualHash.toHex(hash));
+        assertEquals(hash, PerceptualHash.parseHex("8f00000000000a01"));
+        assertThrows(IllegalArgumentException.class,
+                () -> PerceptualHash.parseHex("a01"));
+        assertEquals(64, PerceptualHash.distance(0L, -1L));
+    }
+
+    @Test
+    public void test_AreaAverager() {
+        BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xff000000);
+        image.setRGB(1, 0, 0xff000000);
+        image.setRGB(0, 1, 0xffffffff);
+        image.setRGB(1, 1, 0xffffffff);
+        // the right half is transparent, which counts as white
+        AreaAverager grid = new AreaAverager(4, 2, 2, 1);
+        grid.add(image, 0);
+        int[] rgb = grid.averageRGB();
+        assertEquals(0x808080, rgb[0]);
+        assertEquals(0xffffff, rgb[1]);
+    }
+
+    /**
+     * a white page with a title bar, two columns of text lines and a picture
+     */
+    private static BufferedImage page(int width, int height, int shift) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.scale(width / 600.0, height / 800.0);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 600, 800);
+        g.setColor(Color.DARK_GRAY);
+        g.fillRect(40, 40 + shift, 520, 60);
+        g.setColor(Color.BLACK);
+        for (int y = 140 + shift; y < 700; y += 24) {
+            g.fillRect(40, y, 240, 10);
+        }
+        g.setColor(Color.BLUE);
+        g.fillOval(330, 200 + shift, 220, 220);
+        g.dispose();
+        return image;
+    }
+}
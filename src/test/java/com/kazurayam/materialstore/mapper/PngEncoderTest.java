@@ -0,0 +1,91 @@
+package com.kazurayam.materialstore.mapper;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PngEncoderTest {
+
+    @Test
+    public void test_rgb_roundtrip() throws IOException {
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+        for (PngEncoder encoder : encoders()) {
+            BufferedImage decoded = decode(encoder.encode(image, 150));
+            assertSamePixels(image, decoded);
+        }
+    }
+
+    @Test
+    public void test_argb_roundtrip() throws IOException {
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_ARGB);
+        for (PngEncoder encoder : encoders()) {
+            BufferedImage decoded = decode(encoder.encode(image, 150));
+            assertSamePixels(image, decoded);
+        }
+    }
+
+    @Test
+    public void test_gray_roundtrip() throws IOException {
+        BufferedImage image = createImage(BufferedImage.TYPE_BYTE_GRAY);
+        for (PngEncoder encoder : encoders()) {
+            BufferedImage decoded = decode(encoder.encode(image, 96));
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals(image.getRaster().getSample(x, y, 0),
+                            decoded.getRaster().getSample(x, y, 0));
+                }
+            }
+        }
+    }
+
+    private static PngEncoder[] encoders() {
+        return new PngEncoder[]{
+                PngEncoder.fastest(),
+                PngEncoder.balanced(),
+                PngEncoder.smallest(),
+                PngEncoder.builder().filter(PngEncoder.Filter.PAETH).threads(3).build(),
+                PngEncoder.builder().filter(PngEncoder.Filter.AVERAGE).threads(8).build(),
+                PngEncoder.builder().filter(PngEncoder.Filter.NONE).compressionLevel(0).build()
+        };
+    }
+
+    private static BufferedImage createImage(int type) {
+        BufferedImage image = new BufferedImage(517, 733, type);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256), 128 + random.nextInt(128)));
+            g.drawString("Hello, world " + i,
+                    random.nextInt(image.getWidth()), random.nextInt(image.getHeight()));
+            g.fillOval(random.nextInt(image.getWidth()),
+                    random.nextInt(image.getHeight()), 20, 30);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RSS2CSVMapperTest {
+
+    private static Path outputDir;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(RSS2CSVMapperTest.class.getName());
+        Files.createDirectories(outputDir);
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_smoke() throws MaterialstoreException {
+        String rss = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<rss version=\"2.0\"><channel><title>fixture</title>"
+                + "<item><title>First, with a comma</title><link>http://example.com/1</link></item>"
+                + "<item><title>Second</title></item>"
+                + "</channel></rss>\n";
+        Material material = store.write(new JobName("RSS2CSVMapperTest"),
+                JobTimestamp.now(), FileType.XML,
+                Metadata.builder().put("feed", "rss").build(),
+                rss.getBytes(StandardCharsets.UTF_8));
+        ItemsMapper mapper = new ItemsMapper();
+        mapper.setStore(store);
+        List<String> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, metadata) -> {
+            assertEquals(FileType.CSV, fileType);
+            outputs.add(new String(data, StandardCharsets.UTF_8));
+        });
+        mapper.map(material);
+        //
+        assertEquals(1, outputs.size());
+        assertEquals("title,link\r\n"
+                        + "\"First, with a comma\",http://example.com/1\r\n"
+                        + "Second,\r\n",
+                outputs.get(0));
+    }
+
+    @Test
+    public void test_columnsOnly() throws MaterialstoreException {
+        String rss = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<rss version=\"2.0\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+                + "<channel><title>fixture</title>"
+                + "<item><title>First</title><dc:creator>Alice</dc:creator></item>"
+                + "<item><title>Second</title></item>"
+                + "</channel></rss>\n";
+        Material material = store.write(new JobName("RSS2CSVMapperTest"),
+                JobTimestamp.now(), FileType.XML,
+                Metadata.builder().put("feed", "columnsOnly").build(),
+                rss.getBytes(StandardCharsets.UTF_8));
+        // getData() is not overridden; the Columns are filled by name
+        RSS2CSVMapper mapper = new RSS2CSVMapper() {
+            @Override
+            List<Column> getColumns() {
+                return Arrays.asList(new Column("title", 6000), new Column("dc:creator", 4000));
+            }
+        };
+        mapper.setStore(store);
+        List<String> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, metadata) ->
+                outputs.add(new String(data, StandardCharsets.UTF_8)));
+        mapper.map(material);
+        //
+        assertEquals(1, outputs.size());
+        assertEquals("title,dc:creator\r\n"
+                        + "First,Alice\r\n"
+                        + "Second,\r\n",
+                outputs.get(0));
+    }
+
+    @Test
+    public void test_deltaIndex() throws MaterialstoreException, IOException {
+        Path indexDir = outputDir.resolve("deltaIndex");
+        FileUtils.deleteDirectory(indexDir.toFile());
+        // a fresh JobName, as the JobTimestamps are fixed
+        JobName jobName = new JobName("test_deltaIndex_" + System.currentTimeMillis());
+        Metadata feed = Metadata.builder().put("feed", "delta").build();
+        JobTimestamp first = new JobTimestamp("20221001_120000");
+        Material before = store.write(jobName, first, FileType.XML, feed,
+                rss("<item><title>A</title><link>http://example.com/a</link></item>"
+                        + "<item><title>B</title><link>http://example.com/b</link></item>"
+                        + "<item><title>C</title><link>http://example.com/c</link></item>"));
+        JobTimestamp second = new JobTimestamp("20221001_120100");
+        Material after = store.write(jobName, second, FileType.XML, feed,
+                rss("<item><title>D</title><link>http://example.com/d</link></item>"
+                        + "<item><title>A</title><link>http://example.com/a</link></item>"
+                        + "<item><title>B, revised</title><link>http://example.com/b</link></item>"
+                        + "<item><title>C</title><link>http://example.com/c</link></item>"));
+        ItemsMapper mapper = new ItemsMapper();
+        mapper.setStore(store);
+        mapper.setDeltaIndex(new FeedDeltaIndex(indexDir));
+        List<String> outputs = new ArrayList<>();
+        List<Metadata> metadataList = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, metadata) -> {
+            outputs.add(new String(data, StandardCharsets.UTF_8));
+            metadataList.add(metadata);
+        });
+        mapper.map(before);
+        mapper.map(after);
+        //
+        assertEquals(2, outputs.size());
+        assertEquals(4, outputs.get(0).split("\r\n").length);
+        assertEquals("false", metadataList.get(0).get("delta"));
+        assertEquals("title,link\r\n"
+                        + "D,http://example.com/d\r\n"
+                        + "\"B, revised\",http://example.com/b\r\n",
+                outputs.get(1));
+        assertEquals("true", metadataList.get(1).get("delta"));
+        assertEquals(first.toString(), metadataList.get(1).get("delta_base"));
+    }
+
+    private static byte[] rss(String items) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<rss version=\"2.0\"><channel><title>fixture</title>"
+                + items
+                + "</channel></rss>\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class ItemsMapper extends RSS2CSVMapper {
+        @Override
+        void getData(Material material, RowWriter rows) throws MaterialstoreException {
+            readEntries(material, rows, entry -> {
+                Map<String, String> row = new HashMap<>();
+                row.put("title", entry.getTitle());
+                row.put("link", entry.getLink());
+                rows.write(row);
+            });
+        }
+        @Override
+        List<Column> getColumns() {
+            return Arrays.asList(new Column("title", 6000), new Column("link", 10000));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RSS2ExcelMapperTest {
+
+    private static Path outputDir;
+    private Store store;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+        outputDir = projectDir.resolve("build/tmp/testOutput")
+                .resolve(RSS2ExcelMapperTest.class.getName());
+        Files.createDirectories(outputDir);
+    }
+
+    @BeforeEach
+    public void setup() {
+        Path root = outputDir.resolve("store");
+        store = Stores.newInstance(root);
+    }
+
+    @Test
+    public void test_styles_are_shared() throws MaterialstoreException, IOException {
+        int items = 2000;
+        Material rss = writeFeed(items);
+        ItemsMapper mapper = new ItemsMapper();
+        mapper.setRowWindow(50);
+        mapper.setStore(store);
+        List<byte[]> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, metadata) -> {
+            assertEquals(FileType.XLSX, fileType);
+            outputs.add(data);
+        });
+        mapper.map(rss);
+        //
+        assertEquals(1, outputs.size());
+        try (XSSFWorkbook workbook =
+                     new XSSFWorkbook(new ByteArrayInputStream(outputs.get(0)))) {
+            Sheet sheet = workbook.getSheetAt(0);
+            assertEquals(items, sheet.getLastRowNum());
+            // the default style, the header style and the data style
+            assertTrue(workbook.getNumCellStyles() <= 3,
+                    "cell styles: " + workbook.getNumCellStyles());
+        }
+    }
+
+    @Test
+    public void test_streaming_atom() throws MaterialstoreException, IOException {
+        String atom = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<feed xmlns=\"http://www.w3.org/2005/Atom\"><title>fixture</title>"
+                + "<entry><title>First</title><link rel=\"alternate\" href=\"http://example.com/1\"/>"
+                + "<id>urn:1</id><updated>2022-03-01T00:00:00Z</updated></entry>"
+                + "<entry><title>Second</title><link href=\"http://example.com/2\"/>"
+                + "<id>urn:2</id><updated>2022-03-02T00:00:00Z</updated></entry>"
+                + "</feed>\n";
+        Material material = store.write(new JobName("RSS2ExcelMapperTest"),
+                JobTimestamp.now(), FileType.XML,
+                Metadata.builder().put("feed", "atom").build(),
+                atom.getBytes(StandardCharsets.UTF_8));
+        StreamingItemsMapper mapper = new StreamingItemsMapper();
+        mapper.setStore(store);
+        List<byte[]> outputs = new ArrayList<>();
+        mapper.setMappingListener((data, fileType, metadata) -> outputs.add(data));
+        mapper.map(material);
+        //
+        assertEquals(1, outputs.size());
+        try (XSSFWorkbook workbook =
+                     new XSSFWorkbook(new ByteArrayInputStream(outputs.get(0)))) {
+            Sheet sheet = workbook.getSheetAt(0);
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals("Second", sheet.getRow(2).getCell(0).getStringCellValue());
+            assertEquals("http://example.com/2", sheet.getRow(2).getCell(1).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void test_usesSyndFeed_requires_getData_of_SyndFeed() throws MaterialstoreException {
+        Material rss = writeFeed(2);
+        RSS2ExcelMapper mapper = new RSS2ExcelMapper() {
+            @Override
+            String getSheetName() {
+                return "items";
+            }
+            @Override
+            boolean usesSyndFeed() {
+                return true;
+            }
+            @Override
+            List<Column> getColumns() {
+                return Arrays.asList(new Column("title", 6000));
+            }
+        };
+        mapper.setStore(store);
+        mapper.setMappingListener((data, fileType, metadata) -> {});
+        assertThrows(UnsupportedOperationException.class, () -> mapper.map(rss));
+    }
+
+    private Material writeFeed(int items) throws MaterialstoreException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<rss version=\"2.0\"><channel><title>fixture</title>");
+        sb.append("<link>http://example.com/</link><description>fixture</description>\n");
+        for (int i = 0; i < items; i++) {
+            sb.append("<item><title>Item ").append(i).append("</title>")
+                    .append("<link>http://example.com/items/").append(i).append("</link>")
+                    .append("</item>\n");
+        }
+        sb.append("</channel></rss>\n");
+        return store.write(new JobName("RSS2ExcelMapperTest"),
+                JobTimestamp.now(), FileType.XML,
+                Metadata.builder().put("items", Integer.toString(items)).build(),
+                sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class ItemsMapper extends RSS2ExcelMapper {
+        @Override
+        String getSheetName() {
+            return "items";
+        }
+        @Override
+        boolean usesSyndFeed() {
+            return true;
+        }
+        @Override
+        List<Map<String, String>> getData(SyndFeed feed) {
+            List<Map<String, String>> grid = new ArrayList<>();
+            for (SyndEntry entry : feed.getEntries()) {
+                Map<String, String> row = new HashMap<>();
+                row.put("title", entry.getTitle());
+                row.put("link", entry.getLink());
+                grid.add(row);
+            }
+            return grid;
+        }
+        @Override
+        List<Column> getColumns() {
+            return Arrays.asList(new Column("title", 6000), new Column("link", 10000));
+        }
+    }
+
+    private static final class StreamingItemsMapper extends RSS2ExcelMapper {
+        @Override
+        String getSheetName() {
+            return "entries";
+        }
+        @Override
+        void getData(Material material, RowWriter rows) throws MaterialstoreException {
+            readEntries(material, rows, entry -> {
+                Map<String, String> row = new HashMap<>();
+                row.put("title", entry.getTitle());
+                row.put("link", entry.getLink());
+                rows.write(row);
+            });
+        }
+        @Override
+        List<Column> getColumns() {
+            return Arrays.asList(new Column("title", 6000), new Column("link", 10000));
+        }
+    }
+}
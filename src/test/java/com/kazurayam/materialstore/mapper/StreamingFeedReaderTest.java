@@ -0,0 +1,123 @@
+package com.kazurayam.materialstore.mapper;
+
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StreamingFeedReaderTest {
+
+    @Test
+    public void test_rss2() throws MaterialstoreException {
+        List<FeedEntry> entries = read("<?xml version=\"1.0\"?>"
+                + "<rss version=\"2.0\"><channel><title>channel</title>"
+                + "<item><title>One</title><link>http://example.com/1</link>"
+                + "<category>a</category><category>b</category>"
+                + "<description><![CDATA[<p>x &amp; y</p>]]></description></item>"
+                + "<item><title>Two</title></item>"
+                + "</channel></rss>");
+        assertEquals(2, entries.size());
+        assertEquals("One", entries.get(0).getTitle());
+        assertEquals("http://example.com/1", entries.get(0).getLink());
+        // repeated elements are joined
+        assertEquals("a, b", entries.get(0).get("category"));
+        // the CDATA is taken as is, not unescaped
+        assertEquals("<p>x &amp; y</p>", entries.get(0).getDescription());
+        assertEquals("Two", entries.get(1).getTitle());
+    }
+
+    @Test
+    public void test_rss1_rdf() throws MaterialstoreException {
+        List<FeedEntry> entries = read("<?xml version=\"1.0\"?>"
+                + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                + " xmlns=\"http://purl.org/rss/1.0/\""
+                + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+                + "<channel rdf:about=\"http://example.com/\"><title>channel</title>"
+                + "<items><rdf:Seq><rdf:li rdf:resource=\"http://example.com/1\"/></rdf:Seq></items>"
+                + "</channel>"
+                + "<item rdf:about=\"http://example.com/1\"><title>One</title>"
+                + "<link>http://example.com/1</link>"
+                + "<dc:creator>Alice</dc:creator><dc:date>2022-03-01</dc:date></item>"
+                + "</rdf:RDF>");
+        assertEquals(1, entries.size());
+        assertEquals("One", entries.get(0).getTitle());
+        assertEquals("Alice", entries.get(0).get("dc:creator"));
+        assertEquals("2022-03-01", entries.get(0).getPublished());
+    }
+
+    @Test
+    public void test_atom() throws MaterialstoreException {
+        List<FeedEntry> entries = read("<?xml version=\"1.0\"?>"
+                + "<feed xmlns=\"http://www.w3.org/2005/Atom\"><title>feed</title>"
+                + "<entry><id>urn:1</id><title>One</title>"
+                + "<link rel=\"edit\" href=\"http://example.com/edit/1\"/>"
+                + "<link href=\"http://example.com/1\"/>"
+                + "<summary>first</summary></entry></feed>");
+        assertEquals(1, entries.size());
+        assertEquals("urn:1", entries.get(0).getId());
+        assertEquals("http://example.com/1", entries.get(0).getLink());
+        assertEquals("first", entries.get(0).getDescription());
+    }
+
+    @Test
+    public void test_external_entity_is_rejected() throws IOException {
+        Path secret = Files.createTempFile("StreamingFeedReaderTest", ".txt");
+        try {
+            Files.write(secret, "SECRET".getBytes(StandardCharsets.UTF_8));
+            List<FeedEntry> entries = new ArrayList<>();
+            assertThrows(MaterialstoreException.class, () -> read("<?xml version=\"1.0\"?>"
+                    + "<!DOCTYPE rss [<!ENTITY xxe SYSTEM \"" + secret.toUri() + "\">]>"
+                    + "<rss version=\"2.0\"><channel>"
+                    + "<item><title>&xxe;</title></item>"
+                    + "</channel></rss>", entries));
+            for (FeedEntry entry : entries) {
+                assertFalse(entry.getElements().toString().contains("SECRET"));
+            }
+        } finally {
+            Files.delete(secret);
+        }
+    }
+
+    @Test
+    public void test_internal_entity_is_rejected() {
+        assertThrows(MaterialstoreException.class, () -> read("<?xml version=\"1.0\"?>"
+                + "<!DOCTYPE rss [<!ENTITY word \"expanded\">]>"
+                + "<rss version=\"2.0\"><channel>"
+                + "<item><title>&word;</title></item>"
+                + "</channel></rss>"));
+    }
+
+    @Test
+    public void test_doctype_is_skipped() throws MaterialstoreException {
+        // the DTD is not fetched
+        List<FeedEntry> entries = read("<?xml version=\"1.0\"?>"
+                + "<!DOCTYPE rss SYSTEM \"http://example.invalid/rss-0.91.dtd\">"
+                + "<rss version=\"0.91\"><channel>"
+                + "<item><title>One</title></item>"
+                + "</channel></rss>");
+        assertEquals(1, entries.size());
+        assertEquals("One", entries.get(0).getTitle());
+    }
+
+    private static List<FeedEntry> read(String xml) throws MaterialstoreException {
+        List<FeedEntry> entries = new ArrayList<>();
+        read(xml, entries);
+        return entries;
+    }
+
+    private static void read(String xml, List<FeedEntry> entries) throws MaterialstoreException {
+        new StreamingFeedReader().read(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                entries::add);
+    }
+}